@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.google.common.base.Strings;
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.IOException;
+
+/**
+ * The credentials of a DigitalOcean account a {@link Cloud} creates droplets in: an auth token, and the SSH key pair
+ * to install on the droplets. A cloud has the account configured on the cloud itself, and may have any number of
+ * additional accounts to spread its droplets across, each with its own droplet limit and API rate limit.
+ *
+ * <p>Accounts are identified by their name, which each {@link Slave} keeps to find the auth token of its droplet.
+ * The account configured on the cloud itself has an empty name.
+ */
+public class Account extends AbstractDescribableImpl<Account> {
+
+    private final String name;
+
+    private final String authToken;
+
+    private final String privateKey;
+
+    private final Integer sshKeyId;
+
+    /**
+     * @param name a name identifying the account within its cloud
+     * @param authToken the account's API auth token
+     * @param privateKey the RSA private key of the SSH key
+     * @param sshKeyId the id of the SSH key in the account
+     */
+    @DataBoundConstructor
+    public Account(String name, String authToken, String privateKey, String sshKeyId) {
+        this(name, authToken, privateKey, Integer.valueOf(sshKeyId));
+    }
+
+    Account(String name, String authToken, String privateKey, Integer sshKeyId) {
+        this.name = Util.fixNull(name).trim();
+        this.authToken = authToken;
+        this.privateKey = privateKey;
+        this.sshKeyId = sshKeyId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the name to show for the account, as the account configured on the cloud itself has none
+     */
+    public String getDisplayName() {
+        return name.isEmpty() ? "default" : name;
+    }
+
+    public String getAuthToken() {
+        return authToken;
+    }
+
+    public String getPrivateKey() {
+        return privateKey;
+    }
+
+    public Integer getSshKeyId() {
+        return sshKeyId;
+    }
+
+    /**
+     * @return the metrics of the API calls made with this account's auth token
+     */
+    public ApiMetrics getApiMetrics() {
+        return ApiMetrics.forToken(authToken);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<Account> {
+
+        @Override
+        public String getDisplayName() {
+            return "DigitalOcean account";
+        }
+
+        private static Cloud.DescriptorImpl getCloudDescriptor() {
+            return Jenkins.getInstance().getDescriptorByType(Cloud.DescriptorImpl.class);
+        }
+
+        public FormValidation doCheckName(@QueryParameter String name) {
+            if (Strings.isNullOrEmpty(name)) {
+                return FormValidation.error("Must be set");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckAuthToken(@QueryParameter String authToken) {
+            return Cloud.DescriptorImpl.doCheckAuthToken(authToken);
+        }
+
+        public FormValidation doCheckPrivateKey(@QueryParameter String value) throws IOException {
+            return getCloudDescriptor().doCheckPrivateKey(value);
+        }
+
+        public FormValidation doCheckSshKeyId(@QueryParameter String authToken) {
+            return Cloud.DescriptorImpl.doCheckAuthToken(authToken);
+        }
+
+        public FormValidation doTestConnection(@QueryParameter String authToken) {
+            return getCloudDescriptor().doTestConnection(authToken);
+        }
+
+        public ListBoxModel doFillSshKeyIdItems(@QueryParameter String authToken) throws RequestUnsuccessfulException, DigitalOceanException {
+            return getCloudDescriptor().doFillSshKeyIdItems(authToken);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
+import com.myjeeva.digitalocean.impl.DigitalOceanClient;
+import hudson.Util;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the DigitalOcean API calls made with one auth token, per endpoint: the number of calls, their latency,
+ * the status of their responses and how often they were retried. Every {@link ApiClient} records its calls here.
+ *
+ * <p>Clouds sharing an auth token share their metrics, as they share the token's rate limit.
+ */
+public final class ApiMetrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets, the last bucket holds everything slower.
+     */
+    static final long[] LATENCY_BUCKETS_MILLIS = {50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    /**
+     * The number of requests DigitalOcean allows per auth token and hour.
+     */
+    static final int HOURLY_RATE_LIMIT = 5000;
+
+    private static final ConcurrentMap<String, ApiMetrics> metricsByToken = new ConcurrentHashMap<String, ApiMetrics>();
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    private final long sinceMillis = System.currentTimeMillis();
+
+    /**
+     * The calls made in each of the last 60 minutes, indexed by minute since the epoch modulo 60.
+     */
+    private final long[] recentCalls = new long[60];
+
+    private final long[] recentCallMinutes = new long[60];
+
+    private volatile long rateLimitedAtMillis;
+
+    private ApiMetrics() {
+    }
+
+    /**
+     * @return the metrics of the given auth token
+     */
+    static ApiMetrics forToken(String authToken) {
+        ApiMetrics metrics = metricsByToken.get(authToken);
+        if (metrics == null) {
+            ApiMetrics newMetrics = new ApiMetrics();
+            metrics = metricsByToken.putIfAbsent(authToken, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Wraps a client so that all its calls are recorded in the metrics of the given auth token.
+     */
+    static ApiClient instrument(String authToken, final DigitalOceanClient client) {
+        final ApiMetrics metrics = forToken(authToken);
+
+        return (ApiClient) Proxy.newProxyInstance(ApiClient.class.getClassLoader(), new Class[] {ApiClient.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(client, args);
+                        }
+
+                        long start = System.nanoTime();
+                        String status = "2xx";
+                        try {
+                            return method.invoke(client, args);
+                        } catch (InvocationTargetException e) {
+                            status = getStatus(e.getCause());
+                            throw e.getCause();
+                        } finally {
+                            metrics.record(method.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), status);
+                        }
+                    }
+                });
+    }
+
+    private static String getStatus(Throwable t) {
+        if (t instanceof DigitalOceanException) {
+            Integer httpStatus = ((DigitalOceanException) t).getHttpStatus();
+            return httpStatus == null ? "error" : String.valueOf(httpStatus);
+        } else if (t instanceof RequestUnsuccessfulException) {
+            return "request failed";
+        }
+        return "error";
+    }
+
+    void record(String endpoint, long latencyMillis, String status) {
+        getEndpoint(endpoint).record(latencyMillis, status);
+
+        long now = System.currentTimeMillis();
+        if ("429".equals(status)) {
+            rateLimitedAtMillis = now;
+        }
+
+        long minute = TimeUnit.MILLISECONDS.toMinutes(now);
+        int slot = (int) (minute % recentCalls.length);
+        synchronized (recentCalls) {
+            if (recentCallMinutes[slot] != minute) {
+                recentCallMinutes[slot] = minute;
+                recentCalls[slot] = 0;
+            }
+            recentCalls[slot]++;
+        }
+    }
+
+    /**
+     * @return the number of calls made within the last hour
+     */
+    long getCallsInLastHour() {
+        long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+        long total = 0;
+        synchronized (recentCalls) {
+            for (int i = 0; i < recentCalls.length; i++) {
+                if (recentCallMinutes[i] > minute - recentCalls.length) {
+                    total += recentCalls[i];
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return roughly how many more calls the token may make before hitting the hourly rate limit
+     */
+    public long getRemainingHourlyCalls() {
+        return Math.max(0, HOURLY_RATE_LIMIT - getCallsInLastHour());
+    }
+
+    /**
+     * @return whether a call was rejected for exceeding the rate limit within the last minute
+     */
+    public boolean isRateLimited() {
+        return System.currentTimeMillis() - rateLimitedAtMillis < TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /**
+     * Records that the plugin is going to repeat a failed call.
+     */
+    void recordRetry(String endpoint) {
+        getEndpoint(endpoint).retries.incrementAndGet();
+    }
+
+    private Endpoint getEndpoint(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint == null) {
+            Endpoint newEndpoint = new Endpoint(name);
+            endpoint = endpoints.putIfAbsent(name, newEndpoint);
+            if (endpoint == null) {
+                endpoint = newEndpoint;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * @return the endpoints called so far, by name
+     */
+    public List<Endpoint> getEndpoints() {
+        List<Endpoint> result = new ArrayList<Endpoint>(new TreeMap<String, Endpoint>(endpoints).values());
+        return Collections.unmodifiableList(result);
+    }
+
+    public long getTotalCalls() {
+        long total = 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            total += endpoint.getCalls();
+        }
+        return total;
+    }
+
+    public long getSinceMillis() {
+        return sinceMillis;
+    }
+
+    /**
+     * @return how long calls have been recorded for, for display
+     */
+    public String getAge() {
+        return Util.getTimeSpanString(System.currentTimeMillis() - sinceMillis);
+    }
+
+    public List<String> getLatencyBucketLabels() {
+        List<String> labels = new ArrayList<String>();
+        for (long bound : LATENCY_BUCKETS_MILLIS) {
+            labels.add("<=" + bound + "ms");
+        }
+        labels.add(">" + LATENCY_BUCKETS_MILLIS[LATENCY_BUCKETS_MILLIS.length - 1] + "ms");
+        return labels;
+    }
+
+    public JSONObject toJson() {
+        JSONArray json = new JSONArray();
+        for (Endpoint endpoint : getEndpoints()) {
+            json.add(endpoint.toJson());
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("sinceMillis", sinceMillis);
+        result.put("latencyBucketsMillis", LATENCY_BUCKETS_MILLIS);
+        result.put("endpoints", json);
+        return result;
+    }
+
+    /**
+     * The metrics of a single API endpoint, i.e. a single client method.
+     */
+    public static final class Endpoint {
+
+        private final String name;
+
+        private final AtomicLong calls = new AtomicLong();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        private final AtomicLong retries = new AtomicLong();
+
+        private final AtomicLong totalMillis = new AtomicLong();
+
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS_MILLIS.length + 1);
+
+        private final ConcurrentMap<String, AtomicLong> statuses = new ConcurrentHashMap<String, AtomicLong>();
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        void record(long latencyMillis, String status) {
+            calls.incrementAndGet();
+            totalMillis.addAndGet(latencyMillis);
+
+            long max;
+            do {
+                max = maxMillis.get();
+            } while (latencyMillis > max && !maxMillis.compareAndSet(max, latencyMillis));
+
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MILLIS.length && latencyMillis > LATENCY_BUCKETS_MILLIS[bucket]) {
+                bucket++;
+            }
+            latencyBuckets.incrementAndGet(bucket);
+
+            if (!"2xx".equals(status)) {
+                errors.incrementAndGet();
+            }
+            AtomicLong count = statuses.get(status);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = statuses.putIfAbsent(status, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        public long getMeanMillis() {
+            long n = calls.get();
+            return n == 0 ? 0 : totalMillis.get() / n;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        public List<Long> getLatencyBuckets() {
+            List<Long> buckets = new ArrayList<Long>();
+            for (int i = 0; i < latencyBuckets.length(); i++) {
+                buckets.add(latencyBuckets.get(i));
+            }
+            return buckets;
+        }
+
+        /**
+         * @return the number of responses per HTTP status, "2xx" for successful calls
+         */
+        public Map<String, Long> getStatuses() {
+            Map<String, Long> result = new TreeMap<String, Long>();
+            for (Map.Entry<String, AtomicLong> entry : statuses.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().get());
+            }
+            return result;
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("calls", getCalls());
+            json.put("errors", getErrors());
+            json.put("retries", getRetries());
+            json.put("meanMillis", getMeanMillis());
+            json.put("maxMillis", getMaxMillis());
+            json.put("latencyBuckets", getLatencyBuckets());
+            json.put("statuses", getStatuses());
+            return json;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.myjeeva.digitalocean.pojo.Action;
+import com.myjeeva.digitalocean.pojo.Delete;
+import com.myjeeva.digitalocean.pojo.Droplet;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes DigitalOcean API calls asynchronously, so that callers can wait for several calls at once or react to their
+ * results in listeners instead of blocking a thread of their own for each of them.
+ *
+ * <p>All calls share a bounded pool of threads and a bounded queue, calls beyond which fail with a
+ * {@link RejectedExecutionException}. Every call has a deadline, counted from when it was submitted: a call that
+ * hasn't completed by then fails with a {@link TimeoutException} and is interrupted. Cancelling the returned future
+ * interrupts the call as well. The calls go through {@link DigitalOcean#newClient(String)} like any other, so they are
+ * recorded in {@link ApiMetrics} and held back by the {@link CircuitBreaker}.
+ */
+final class AsyncApiClient {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncApiClient.class.getName());
+
+    static final int MAX_CONCURRENT_CALLS =
+            Integer.getInteger(AsyncApiClient.class.getName() + ".maxConcurrentCalls", 10);
+
+    static final int MAX_QUEUED_CALLS =
+            Integer.getInteger(AsyncApiClient.class.getName() + ".maxQueuedCalls", 1000);
+
+    static final long DEFAULT_DEADLINE_MILLIS =
+            Long.getLong(AsyncApiClient.class.getName() + ".deadlineMillis", TimeUnit.MINUTES.toMillis(1));
+
+    private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CONCURRENT_CALLS, MAX_CONCURRENT_CALLS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_CALLS),
+            new NamingThreadFactory(new DaemonThreadFactory(), "DigitalOcean API"));
+
+    /**
+     * Enforces the deadlines and starts delayed calls, never runs calls itself.
+     */
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "DigitalOcean API deadlines"));
+
+    private static final AtomicLong succeeded = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong timedOut = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong cancelled = new AtomicLong();
+    private static final AtomicLong queuedNanos = new AtomicLong();
+
+    static {
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * A blocking API call.
+     */
+    interface Call<T> {
+        T call(String authToken) throws Exception;
+    }
+
+    private final String authToken;
+
+    private final long deadlineMillis;
+
+    private AsyncApiClient(String authToken, long deadlineMillis) {
+        this.authToken = authToken;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    static AsyncApiClient forToken(String authToken) {
+        return new AsyncApiClient(authToken, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    /**
+     * @return a client for the same auth token whose calls have the given deadline
+     */
+    AsyncApiClient withDeadline(long deadlineMillis) {
+        return new AsyncApiClient(authToken, deadlineMillis);
+    }
+
+    /**
+     * Lists all droplets, see {@link DigitalOcean#getDroplets(String)}.
+     */
+    ListenableFuture<List<Droplet>> getDroplets() {
+        return call("getDroplets", new Call<List<Droplet>>() {
+            @Override
+            public List<Droplet> call(String authToken) throws Exception {
+                return DigitalOcean.getDroplets(authToken);
+            }
+        });
+    }
+
+    ListenableFuture<Droplet> getDroplet(final Integer dropletId) {
+        return call("getDroplet", new Call<Droplet>() {
+            @Override
+            public Droplet call(String authToken) throws Exception {
+                return DigitalOcean.getDroplet(authToken, dropletId);
+            }
+        });
+    }
+
+    ListenableFuture<Droplet> createDroplet(final Droplet droplet) {
+        return call("createDroplet", new Call<Droplet>() {
+            @Override
+            public Droplet call(String authToken) throws Exception {
+                return DigitalOcean.newClient(authToken).createDroplet(droplet);
+            }
+        });
+    }
+
+    ListenableFuture<Delete> deleteDroplet(Integer dropletId) {
+        return deleteDroplet(dropletId, 0);
+    }
+
+    /**
+     * Deletes a droplet after the given delay, e.g. to retry once a pending event of the droplet has completed. The
+     * deadline is counted from the end of the delay.
+     */
+    ListenableFuture<Delete> deleteDroplet(final Integer dropletId, long delayMillis) {
+        return call("deleteDroplet", new Call<Delete>() {
+            @Override
+            public Delete call(String authToken) throws Exception {
+                return DigitalOcean.newClient(authToken).deleteDroplet(dropletId);
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Rebuilds a droplet, see {@link DigitalOcean#rebuildDroplet(String, Integer, String)}.
+     */
+    ListenableFuture<Action> rebuildDroplet(final Integer dropletId, final String imageIdOrSlug) {
+        return call("rebuildDroplet", new Call<Action>() {
+            @Override
+            public Action call(String authToken) throws Exception {
+                return DigitalOcean.rebuildDroplet(authToken, dropletId, imageIdOrSlug);
+            }
+        });
+    }
+
+    ListenableFuture<Action> getAction(Integer actionId) {
+        return getAction(actionId, 0);
+    }
+
+    /**
+     * Fetches an action after the given delay, e.g. to poll it until it has completed. The deadline is counted from
+     * the end of the delay.
+     */
+    ListenableFuture<Action> getAction(final Integer actionId, long delayMillis) {
+        return call("getAction", new Call<Action>() {
+            @Override
+            public Action call(String authToken) throws Exception {
+                return DigitalOcean.newClient(authToken).getActionInfo(actionId);
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Makes any other API call asynchronously.
+     * @param name the name of the call for the logs
+     */
+    <T> ListenableFuture<T> call(String name, Call<T> call) {
+        return call(name, call, 0);
+    }
+
+    private <T> ListenableFuture<T> call(final String name, final Call<T> call, long delayMillis) {
+        final SettableFuture<T> result = SettableFuture.create();
+        final AtomicReference<Future<?>> execution = new AtomicReference<Future<?>>();
+        final AtomicBoolean returned = new AtomicBoolean();
+
+        final Runnable task = new Runnable() {
+            private final long submittedNanos = System.nanoTime();
+
+            @Override
+            public void run() {
+                if (result.isDone()) {
+                    // timed out or cancelled while queued
+                    return;
+                }
+                queuedNanos.addAndGet(System.nanoTime() - submittedNanos);
+                try {
+                    T value = call.call(authToken);
+                    returned.set(true);
+                    if (result.set(value)) {
+                        succeeded.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    returned.set(true);
+                    if (result.setException(t)) {
+                        failed.incrementAndGet();
+                    }
+                }
+            }
+        };
+
+        Runnable start = new Runnable() {
+            @Override
+            public void run() {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    execution.set(pool.submit(task));
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                    result.setException(e);
+                }
+            }
+        };
+        if (delayMillis > 0) {
+            timers.schedule(start, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            start.run();
+        }
+
+        final ScheduledFuture<?> deadline = timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.setException(new TimeoutException("DigitalOcean API call " + name + " didn't complete within "
+                        + deadlineMillis + " ms"))) {
+                    timedOut.incrementAndGet();
+                    LOGGER.log(Level.FINE, "DigitalOcean API call {0} timed out", name);
+                }
+            }
+        }, delayMillis + deadlineMillis, TimeUnit.MILLISECONDS);
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                deadline.cancel(false);
+                if (result.isCancelled()) {
+                    cancelled.incrementAndGet();
+                }
+                // interrupt the call if it's still running, i.e. if it timed out or was cancelled
+                Future<?> running = execution.get();
+                if (running != null && !returned.get()) {
+                    running.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return result;
+    }
+
+    /**
+     * @return the state of the asynchronous API calls since Jenkins was started
+     */
+    static String describe() {
+        long started = succeeded.get() + failed.get();
+        return String.format("%d asynchronous calls running, %d queued, %d succeeded, %d failed, %d timed out, "
+                + "%d cancelled, %d rejected; %d ms mean queueing time", pool.getActiveCount(), pool.getQueue().size(),
+                succeeded.get(), failed.get(), timedOut.get(), cancelled.get(), rejected.get(),
+                started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(queuedNanos.get() / started));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A bucket of an S3-compatible object store, such as DigitalOcean Spaces.
+ *
+ * <p>Objects are accessed through presigned URLs (AWS signature version 4), which can be handed to a droplet so
+ * that it transfers large objects directly, without the credentials and without going through Jenkins. Small
+ * objects can be read and written from Jenkins itself.
+ */
+final class CacheBucket {
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    private final URL bucketUrl;
+
+    private final String region;
+
+    private final String accessKey;
+
+    private final String secretKey;
+
+    /**
+     * @param bucketUrl the URL of the bucket, either virtual-hosted style (https://bucket.nyc3.digitaloceanspaces.com)
+     *                  or path style (https://nyc3.digitaloceanspaces.com/bucket)
+     * @param region the region to sign requests for
+     * @param accessKey the access key ID
+     * @param secretKey the secret access key
+     */
+    CacheBucket(String bucketUrl, String region, String accessKey, String secretKey) throws MalformedURLException {
+        String url = bucketUrl.trim();
+        this.bucketUrl = new URL(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * Creates a presigned URL for an object.
+     * @param method the HTTP method the URL is used with, e.g. GET or PUT
+     * @param key the object key
+     * @param expiresSeconds how long the URL is valid for
+     */
+    URL presign(String method, String key, int expiresSeconds) {
+        return presign(method, key, expiresSeconds, new Date());
+    }
+
+    URL presign(String method, String key, int expiresSeconds, Date now) {
+        try {
+            String amzDate = format("yyyyMMdd'T'HHmmss'Z'", now);
+            String date = amzDate.substring(0, 8);
+            String scope = date + "/" + region + "/s3/aws4_request";
+
+            String path = bucketUrl.getPath() + "/" + encode(key, false);
+            String host = bucketUrl.getPort() == -1 ? bucketUrl.getHost() : bucketUrl.getHost() + ":" + bucketUrl.getPort();
+            // parameters in lexicographical order
+            String query = "X-Amz-Algorithm=" + ALGORITHM
+                    + "&X-Amz-Credential=" + encode(accessKey + "/" + scope, true)
+                    + "&X-Amz-Date=" + amzDate
+                    + "&X-Amz-Expires=" + expiresSeconds
+                    + "&X-Amz-SignedHeaders=host";
+
+            String canonicalRequest = method + "\n"
+                    + path + "\n"
+                    + query + "\n"
+                    + "host:" + host + "\n"
+                    + "\n"
+                    + "host\n"
+                    + "UNSIGNED-PAYLOAD";
+
+            String stringToSign = ALGORITHM + "\n"
+                    + amzDate + "\n"
+                    + scope + "\n"
+                    + hex(MessageDigest.getInstance("SHA-256").digest(canonicalRequest.getBytes("UTF-8")));
+
+            byte[] signingKey = hmac(("AWS4" + secretKey).getBytes("UTF-8"), date);
+            signingKey = hmac(signingKey, region);
+            signingKey = hmac(signingKey, "s3");
+            signingKey = hmac(signingKey, "aws4_request");
+            String signature = hex(hmac(signingKey, stringToSign));
+
+            return new URL(bucketUrl.getProtocol(), bucketUrl.getHost(), bucketUrl.getPort(),
+                    path + "?" + query + "&X-Amz-Signature=" + signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a small object as a string.
+     * @return the object's content, or null if there is no such object
+     */
+    String getString(String key) throws IOException {
+        HttpURLConnection connection = open("GET", key);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Failed to get " + key + ": HTTP " + status);
+            }
+
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    content.write(buffer, 0, n);
+                }
+                return content.toString("UTF-8");
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Writes a small object from a string.
+     */
+    void putString(String key, String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        HttpURLConnection connection = open("PUT", key);
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(bytes.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                throw new IOException("Failed to put " + key + ": HTTP " + status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String method, String key) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) presign(method, key, 60).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * URI-encodes a string as required for signing: everything but unreserved characters is percent-encoded,
+     * slashes only if they're not path separators.
+     */
+    private static String encode(String value, boolean encodeSlash) throws UnsupportedEncodingException {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : value.getBytes("UTF-8")) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException, UnsupportedEncodingException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes("UTF-8"));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static String format(String pattern, Date date) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+}
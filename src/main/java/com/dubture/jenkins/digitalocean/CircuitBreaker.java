@@ -0,0 +1,229 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling the DigitalOcean API with an auth token while the API keeps failing for it, so that a degraded API
+ * isn't hit by every provisioning attempt, launch and check on top of its trouble.
+ *
+ * <p>The breaker opens after {@value #FAILURE_THRESHOLD} calls in a row failed with a server error or a rate limit,
+ * or without a response at all, e.g. on a timeout. While it's open, calls fail right away with an
+ * {@link OpenException}. Once it has been open for a while, a single call is let through as a probe: if the probe
+ * succeeds, the breaker closes, otherwise it opens again for twice as long, up to {@link #MAX_OPEN_MILLIS}. Client
+ * errors, such as a droplet that doesn't exist, show that the API is up and count as successes.
+ *
+ * <p>Like {@link ApiMetrics}, breakers are kept per auth token, so clouds sharing a token share its breaker.
+ */
+final class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    static final int FAILURE_THRESHOLD = 5;
+
+    static final long MIN_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    static final long MAX_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ConcurrentMap<String, CircuitBreaker> breakersByToken = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    enum State {
+        CLOSED,
+        OPEN,
+        /**
+         * A probe is on its way.
+         */
+        HALF_OPEN
+    }
+
+    private final String name;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openMillis;
+
+    private long openUntilMillis;
+
+    CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the breaker of the given auth token
+     */
+    static CircuitBreaker forToken(String authToken) {
+        CircuitBreaker breaker = breakersByToken.get(authToken);
+        if (breaker == null) {
+            // only the end of the token, so that it's recognizable in the log without giving it away
+            String suffix = authToken == null || authToken.length() < 4 ? "" : authToken.substring(authToken.length() - 4);
+            CircuitBreaker newBreaker = new CircuitBreaker("auth token ..." + suffix);
+            breaker = breakersByToken.putIfAbsent(authToken, newBreaker);
+            if (breaker == null) {
+                breaker = newBreaker;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Forgets the state of all breakers, e.g. when switching to another API.
+     */
+    static void resetAll() {
+        breakersByToken.clear();
+    }
+
+    /**
+     * Wraps the client so that its calls go through the breaker of the given auth token.
+     */
+    static ApiClient protect(String authToken, final ApiClient client) {
+        final CircuitBreaker breaker = forToken(authToken);
+
+        return (ApiClient) Proxy.newProxyInstance(ApiClient.class.getClassLoader(), new Class[] {ApiClient.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(client, args);
+                        }
+
+                        if (!breaker.tryAcquire(System.currentTimeMillis())) {
+                            throw new OpenException(breaker);
+                        }
+                        try {
+                            Object result = method.invoke(client, args);
+                            breaker.onSuccess();
+                            return result;
+                        } catch (InvocationTargetException e) {
+                            if (isFailure(e.getCause())) {
+                                breaker.onFailure(System.currentTimeMillis());
+                            } else {
+                                breaker.onSuccess();
+                            }
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @return whether the error means the API is in trouble, rather than that the request was wrong
+     */
+    static boolean isFailure(Throwable t) {
+        if (t instanceof DigitalOceanException) {
+            Integer status = ((DigitalOceanException) t).getHttpStatus();
+            return status == null || status >= 500 || status == 429;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a call may be made now, in which case its outcome must be reported
+     */
+    synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < openUntilMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                LOGGER.info("Probing the DigitalOcean API with " + name);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.info("The DigitalOcean API is responding again to " + name + ", resuming calls");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMillis = 0;
+    }
+
+    synchronized void onFailure(long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            open(now, Math.min(openMillis * 2, MAX_OPEN_MILLIS));
+        } else if (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+            open(now, MIN_OPEN_MILLIS);
+        }
+    }
+
+    private void open(long now, long millis) {
+        state = State.OPEN;
+        openMillis = millis;
+        openUntilMillis = now + millis;
+        LOGGER.warning("The DigitalOcean API failed " + consecutiveFailures + " calls in a row with " + name
+                + ", pausing calls for " + TimeUnit.MILLISECONDS.toSeconds(millis) + " seconds");
+    }
+
+    /**
+     * @return whether calls are being held back, including while a probe is on its way
+     */
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long until the next probe, 0 if calls can be made or a probe is due
+     */
+    synchronized long getRetryMillis(long now) {
+        return state == State.OPEN ? Math.max(0, openUntilMillis - now) : 0;
+    }
+
+    /**
+     * Thrown instead of calling the API while the breaker is open.
+     */
+    static final class OpenException extends RequestUnsuccessfulException {
+
+        private static final long serialVersionUID = 1L;
+
+        OpenException(CircuitBreaker breaker) {
+            super("Not calling the DigitalOcean API with " + breaker.name + " as it has been failing, retrying in "
+                    + TimeUnit.MILLISECONDS.toSeconds(breaker.getRetryMillis(System.currentTimeMillis())) + " seconds");
+        }
+    }
+}
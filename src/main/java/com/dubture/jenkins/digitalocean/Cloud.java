@@ -26,13 +26,13 @@
 package com.dubture.jenkins.digitalocean;
 
 import com.google.common.base.Strings;
+import com.myjeeva.digitalocean.common.DropletStatus;
 import com.myjeeva.digitalocean.exception.DigitalOceanException;
 import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
-import com.myjeeva.digitalocean.impl.DigitalOceanClient;
 import com.myjeeva.digitalocean.pojo.Droplet;
 import com.myjeeva.digitalocean.pojo.Key;
+import com.myjeeva.digitalocean.pojo.Size;
 import hudson.Extension;
-import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.Node;
@@ -40,8 +40,13 @@ import hudson.slaves.NodeProvisioner;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -49,8 +54,14 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,6 +103,29 @@ public class Cloud extends hudson.slaves.Cloud {
      */
     private final List<? extends SlaveTemplate> templates;
 
+    /**
+     * Further accounts to create droplets in, besides the one configured on the cloud itself.
+     */
+    private final List<Account> accounts;
+
+    /**
+     * The account configured on the cloud itself followed by the additional accounts.
+     */
+    private transient List<Account> allAccounts;
+
+    /**
+     * Why the last capacity check found that no more droplets can be created, null if it found room.
+     */
+    private transient volatile String capacityReason;
+
+    /**
+     * Templates matching a label expression, in the order they are configured in. As a cloud is recreated when
+     * it's reconfigured, this never needs to be invalidated.
+     */
+    private transient ConcurrentMap<String, List<SlaveTemplate>> templatesByLabel;
+
+    private static final int MAX_CACHED_LABELS = 1000;
+
     private static final Logger LOGGER = Logger.getLogger(Cloud.class.getName());
 
     /**
@@ -100,10 +134,17 @@ public class Cloud extends hudson.slaves.Cloud {
      * right before provisioning and see that instance cap was not reached yet. So, for example, there
      * might be a situation where 2 nodes see that 1 more node can be provisioned before the instance cap
      * is reached, and they both happily provision, making one more node being provisioned than the instance
-     * cap allows. Thus we need a synchronization, so that only one node at a time could be provisioned, to
-     * remove the race condition.
+     * cap allows. Thus we need a synchronization, so that only one node at a time could be checked against the
+     * caps and counted, to remove the race condition. The droplets are created outside of it, once their slots are
+     * reserved, and each cloud has its own, so that creates don't wait for one another.
+     */
+    private static final ConcurrentMap<String, Object> provisionSynchronizors = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The names of the droplets being created, by the auth token of the account they are created in. They count
+     * against the account's droplet limit until the droplet shows up in the account's droplets.
      */
-    private static final Object provisionSynchronizor = new Object();
+    private static final ConcurrentMap<String, Set<String>> creatingDroplets = new ConcurrentHashMap<String, Set<String>>();
 
     /**
      * Constructor parameters are injected via jelly in the jenkins global configuration
@@ -114,6 +155,7 @@ public class Cloud extends hudson.slaves.Cloud {
      * @param instanceCap the maximum number of instances that can be started
      * @param timeoutMinutes
      * @param templates the templates for this cloud
+     * @param accounts additional accounts to create droplets in
      */
     @DataBoundConstructor
     public Cloud(String name,
@@ -122,7 +164,8 @@ public class Cloud extends hudson.slaves.Cloud {
             String sshKeyId,
             String instanceCap,
             String timeoutMinutes,
-            List<? extends SlaveTemplate> templates) {
+            List<? extends SlaveTemplate> templates,
+            List<Account> accounts) {
         super(name);
 
         LOGGER.log(Level.INFO, "Constructing new Cloud(name = {0}, <token>, <privateKey>, <keyId>, instanceCap = {1}, ...)", new Object[]{name, instanceCap});
@@ -139,12 +182,35 @@ public class Cloud extends hudson.slaves.Cloud {
             this.templates = templates;
         }
 
+        this.accounts = accounts == null ? Collections.<Account>emptyList() : accounts;
+
         LOGGER.info("Creating DigitalOcean cloud with " + this.templates.size() + " templates");
+
+        readResolve();
+    }
+
+    protected Object readResolve() {
+        templatesByLabel = new ConcurrentHashMap<String, List<SlaveTemplate>>();
+
+        allAccounts = new ArrayList<Account>();
+        allAccounts.add(new Account("", authToken, privateKey, sshKeyId));
+        if (accounts != null) {
+            allAccounts.addAll(accounts);
+        }
+        allAccounts = Collections.unmodifiableList(allAccounts);
+        return this;
     }
 
     public boolean isInstanceCapReached() throws RequestUnsuccessfulException, DigitalOceanException {
+        return getAvailableCapacity() <= 0;
+    }
+
+    /**
+     * @return the number of droplets the instance caps allow in total
+     */
+    private int getTotalInstanceCap() {
         if (instanceCap == 0) {
-            return false;
+            return Integer.MAX_VALUE;
         }
 
         int slaveTotalInstanceCap = 0;
@@ -158,33 +224,179 @@ public class Cloud extends hudson.slaves.Cloud {
             }
         }
 
-        int count = 0;
+        return Math.min(instanceCap, slaveTotalInstanceCap);
+    }
 
-        LOGGER.log(Level.INFO, "cloud limit check");
+    /**
+     * Counts how many more droplets this cloud may create, checking its nodes before listing any droplets.
+     * @see #getAvailableCapacity(Map)
+     */
+    int getAvailableCapacity() throws RequestUnsuccessfulException, DigitalOceanException {
+        int cap = getTotalInstanceCap();
+        if (NodeCounter.countCloudNodes(name) >= cap) {
+            capacityReason = "Instance cap of " + cap + " reached";
+            return 0;
+        }
 
-        List<Node> nodes = Jenkins.getInstance().getNodes();
-        for (Node n : nodes) {
-            if (DropletName.isDropletInstanceOfCloud(n.getDisplayName(), name)) {
-                count ++;
+        return getAvailableCapacity(listDroplets());
+    }
+
+    /**
+     * Counts how many more droplets this cloud may create: the smaller of what is left of its instance caps and what
+     * is left of its accounts' droplet limits. All droplets of an account count against its limit, including those
+     * of other clouds and of people and tools outside of Jenkins. Accounts whose API calls are held back by their
+     * {@link CircuitBreaker} have no room at all. If nothing is left, the reason is kept for the cloud's page.
+     * @param droplets the droplets of each account
+     */
+    int getAvailableCapacity(Map<Account, List<Droplet>> droplets) {
+        LOGGER.log(Level.FINE, "cloud limit check");
+
+        int cap = getTotalInstanceCap();
+        long capacity = Long.MAX_VALUE;
+        if (cap != Integer.MAX_VALUE) {
+            List<Droplet> all = new ArrayList<Droplet>();
+            for (List<Droplet> accountDroplets : droplets.values()) {
+                all.addAll(accountDroplets);
+            }
+            capacity = cap - Math.max(NodeCounter.countCloudNodes(name), countDroplets(all, name));
+            if (capacity <= 0) {
+                capacityReason = "Instance cap of " + cap + " reached";
+                return 0;
             }
         }
 
-        if (count >= Math.min(instanceCap, slaveTotalInstanceCap)) {
-            return true;
+        long headroom = 0;
+        StringBuilder usage = new StringBuilder();
+        int unavailable = 0;
+        long retryMillis = Long.MAX_VALUE;
+        for (Map.Entry<Account, List<Droplet>> entry : droplets.entrySet()) {
+            CircuitBreaker breaker = CircuitBreaker.forToken(entry.getKey().getAuthToken());
+            if (breaker.isOpen()) {
+                // droplets can't be created in it until the API recovers
+                unavailable++;
+                retryMillis = Math.min(retryMillis, breaker.getRetryMillis(System.currentTimeMillis()));
+                usage.append(usage.length() == 0 ? "" : ", ").append(entry.getKey().getDisplayName())
+                        .append(" is unavailable");
+                continue;
+            }
+            long limit = getDropletLimit(entry.getKey());
+            headroom += Math.max(0, limit - entry.getValue().size());
+            usage.append(usage.length() == 0 ? "" : ", ").append(entry.getKey().getDisplayName()).append(" has ")
+                    .append(entry.getValue().size()).append(" of ").append(limit);
+        }
+        if (headroom <= 0) {
+            if (unavailable == droplets.size()) {
+                capacityReason = "The DigitalOcean API is failing, retrying in "
+                        + TimeUnit.MILLISECONDS.toSeconds(retryMillis) + " seconds";
+            } else {
+                capacityReason = "Droplet limit reached in every account (" + usage + ")";
+            }
+            return 0;
+        }
+
+        capacityReason = null;
+        return (int) Math.min(capacity, Math.min(headroom, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return the account's droplet limit, or {@link Integer#MAX_VALUE} if it can't be fetched
+     */
+    private long getDropletLimit(Account account) {
+        try {
+            return DigitalOcean.getDropletLimit(account.getAuthToken());
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to fetch the droplet limit of account " + account.getDisplayName()
+                    + " of cloud " + name, e);
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return why this cloud can't create droplets, or null if it can
+     */
+    public String getCapacityReason() {
+        return capacityReason;
+    }
+
+    /**
+     * Lists the droplets of each of this cloud's accounts, as they were last known for accounts whose API calls are
+     * held back by their {@link CircuitBreaker}.
+     */
+    Map<Account, List<Droplet>> listDroplets() throws RequestUnsuccessfulException, DigitalOceanException {
+        Map<Account, List<Droplet>> droplets = new LinkedHashMap<Account, List<Droplet>>();
+        for (Account account : allAccounts) {
+            droplets.put(account, DigitalOcean.getKnownDroplets(account.getAuthToken()));
+        }
+        return droplets;
+    }
+
+    /**
+     * Lists the droplets of all of this cloud's accounts.
+     */
+    List<Droplet> getDroplets() throws RequestUnsuccessfulException, DigitalOceanException {
+        List<Droplet> droplets = new ArrayList<Droplet>();
+        for (Account account : allAccounts) {
+            droplets.addAll(DigitalOcean.getDroplets(account.getAuthToken()));
+        }
+        return droplets;
+    }
+
+    /**
+     * Picks the account to create the next droplet in, among those whose droplet limit isn't reached yet. Accounts
+     * that hit the API rate limit within the last minute are only picked if all accounts did. Among the others, the
+     * account with the most room left below its droplet limit is picked, and on a tie the one with the most API calls
+     * left this hour. Accounts whose API calls are held back by their {@link CircuitBreaker} are never picked.
+     * @param droplets the droplets of each account
+     * @return the account, or null if all accounts are full
+     */
+    Account selectAccount(Map<Account, List<Droplet>> droplets) {
+        Account best = null;
+        boolean bestRateLimited = true;
+        long bestHeadroom = 0;
+        long bestRemainingCalls = -1;
+
+        for (Map.Entry<Account, List<Droplet>> entry : droplets.entrySet()) {
+            Account account = entry.getKey();
+            if (CircuitBreaker.forToken(account.getAuthToken()).isOpen()) {
+                continue;
+            }
+            long headroom = getDropletLimit(account) - entry.getValue().size();
+            if (headroom <= 0) {
+                continue;
+            }
+
+            ApiMetrics metrics = account.getApiMetrics();
+            boolean rateLimited = metrics.isRateLimited();
+            if (rateLimited && !bestRateLimited) {
+                continue;
+            }
+
+            long remainingCalls = metrics.getRemainingHourlyCalls();
+            if (best == null || (bestRateLimited && !rateLimited) || headroom > bestHeadroom
+                    || (headroom == bestHeadroom && remainingCalls > bestRemainingCalls)) {
+                best = account;
+                bestRateLimited = rateLimited;
+                bestHeadroom = headroom;
+                bestRemainingCalls = remainingCalls;
+            }
         }
 
-        List<Droplet> availableDroplets = DigitalOcean.getDroplets(authToken);
+        return best;
+    }
 
-        count = 0;
-        for (Droplet droplet : availableDroplets) {
+    /**
+     * Counts the new or active droplets that belong to the given cloud.
+     */
+    static int countDroplets(List<Droplet> droplets, String cloudName) {
+        int count = 0;
+        for (Droplet droplet : droplets) {
             if (droplet.isActive() || droplet.isNew()) {
-                if (DropletName.isDropletInstanceOfCloud(droplet.getName(), name)) {
+                if (DropletName.isDropletInstanceOfCloud(droplet.getName(), cloudName)) {
                     count ++;
                 }
             }
         }
-
-        return count >= Math.min(instanceCap, slaveTotalInstanceCap);
+        return count;
     }
 
     /**
@@ -196,13 +408,19 @@ public class Cloud extends hudson.slaves.Cloud {
      */
     @Override
     public Collection<NodeProvisioner.PlannedNode> provision(final Label label, int excessWorkload) {
-        synchronized (provisionSynchronizor) {
+        return provision(label, excessWorkload, Integer.MAX_VALUE);
+    }
+
+    private List<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload, int maxNodes) {
+        synchronized (getProvisionSynchronizor()) {
             List<NodeProvisioner.PlannedNode> provisioningNodes = new ArrayList<NodeProvisioner.PlannedNode>();
             try {
+                // the launches create their droplets later on, so count them against the capacity up front
+                int capacity = Math.min(getAvailableCapacity(), maxNodes);
                 while (excessWorkload > 0) {
 
-                    if (isInstanceCapReached()) {
-                        LOGGER.log(Level.INFO, "Instance cap of " + getInstanceCap() + " reached, not provisioning.");
+                    if (provisioningNodes.size() >= capacity) {
+                        LOGGER.log(Level.INFO, (capacity == 0 ? capacityReason : "Capacity of " + capacity + " more droplets reached") + ", not provisioning.");
                         break;
                     }
 
@@ -213,23 +431,10 @@ public class Cloud extends hudson.slaves.Cloud {
 
                     final String dropletName = DropletName.generateDropletName(name, template.getName());
 
-                    provisioningNodes.add(new NodeProvisioner.PlannedNode(dropletName, Computer.threadPoolForRemoting.submit(new Callable<Node>() {
-                        public Node call() throws Exception {
-                            Slave slave;
-                            synchronized (provisionSynchronizor) {
-                                if (isInstanceCapReached()) {
-                                    LOGGER.log(Level.INFO, "Instance cap of " + getInstanceCap() + " reached, not provisioning.");
-                                    return null;
-                                }
-                                slave = template.provision(dropletName, name, authToken, privateKey, sshKeyId);
-                            }
-                            Jenkins.getInstance().addNode(slave);
-                            slave.toComputer().connect(false).get();
-                            return slave;
-                        }
-                    }), template.getNumExecutors()));
-
-                    excessWorkload -= template.getNumExecutors();
+                    NodeProvisioner.PlannedNode node = DropletLaunch.start(this, template, dropletName);
+                    provisioningNodes.add(node);
+
+                    excessWorkload -= node.numExecutors;
                 }
 
                 LOGGER.info("Provisioning " + provisioningNodes.size() + " DigitalOcean nodes");
@@ -242,31 +447,206 @@ public class Cloud extends hudson.slaves.Cloud {
         }
     }
 
+    /**
+     * Provisions slaves for the given label right away, rather than waiting for the {@link NodeProvisioner} to react
+     * to the queue, e.g. ahead of a parallel stage of a pipeline. Idle slaves of this cloud that have the label,
+     * including the ones still launching, count towards the requested number, and the instance caps and the
+     * accounts' droplet limits apply as usual.
+     * @param label the label the slaves must have
+     * @param count how many idle slaves with the label there should be
+     * @return the slaves being launched, completed as they come online
+     */
+    public List<NodeProvisioner.PlannedNode> prewarm(Label label, int count) {
+        int missing = count - countIdleNodes(label);
+        if (missing <= 0) {
+            return Collections.emptyList();
+        }
+
+        LOGGER.info("Pre-warming " + missing + " slaves for label " + label);
+        return provision(label, Integer.MAX_VALUE, missing);
+    }
+
+    private int countIdleNodes(Label label) {
+        // counts the launches from the earlier calls, including the ones whose droplets are still being created
+        int count = DropletLaunch.countLaunching(this, label);
+        for (Node node : label.getNodes()) {
+            if (!(node instanceof Slave) || !name.equals(((Slave) node).getCloudName())) {
+                continue;
+            }
+            DropletLaunch.State launchState = DropletLaunch.getState(node.getNodeName());
+            if (launchState != null && launchState != DropletLaunch.State.ONLINE) {
+                // already counted as launching
+                continue;
+            }
+            hudson.model.Computer computer = node.toComputer();
+            if (computer instanceof Computer && computer.isIdle() && !((Computer) computer).isUsedUp()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Creates a droplet for the given template in the account with the most room, unless the instance caps or the
+     * accounts' droplet limits have been reached in the meantime.
+     * @return the new slave, or null if there is no capacity left
+     */
+    Slave provisionSlave(SlaveTemplate template, String dropletName) throws Exception {
+        Account account;
+        synchronized (getProvisionSynchronizor()) {
+            if (NodeCounter.countCloudNodes(name) >= getTotalInstanceCap()) {
+                LOGGER.log(Level.INFO, "Instance cap of " + getTotalInstanceCap() + " reached, not provisioning.");
+                return null;
+            }
+            Map<Account, List<Droplet>> droplets = withCreatingDroplets(listDroplets());
+            account = getAvailableCapacity(droplets) > 0 ? selectAccount(droplets) : null;
+            if (account == null) {
+                LOGGER.log(Level.INFO, (capacityReason == null ? "No account can create droplets" : capacityReason) + ", not provisioning.");
+                return null;
+            }
+            if (template.isInstanceCapReached(name, droplets)) {
+                LOGGER.log(Level.INFO, "Instance cap of " + template.getInstanceCap() + " of template " + template.getName() + " reached, not provisioning.");
+                return null;
+            }
+            // reserve the slot right away, so that the next instance cap check sees it while the droplet is created
+            NodeCounter.add(dropletName);
+            creatingDroplets(account).add(dropletName);
+        }
+
+        Slave slave = null;
+        try {
+            slave = template.provision(dropletName, this, account);
+            return slave;
+        } finally {
+            creatingDroplets(account).remove(dropletName);
+            if (slave == null) {
+                NodeCounter.remove(dropletName);
+            }
+        }
+    }
+
+    private Object getProvisionSynchronizor() {
+        Object synchronizor = provisionSynchronizors.get(name);
+        if (synchronizor == null) {
+            provisionSynchronizors.putIfAbsent(name, new Object());
+            synchronizor = provisionSynchronizors.get(name);
+        }
+        return synchronizor;
+    }
+
+    private static Set<String> creatingDroplets(Account account) {
+        Set<String> names = creatingDroplets.get(account.getAuthToken());
+        if (names == null) {
+            creatingDroplets.putIfAbsent(account.getAuthToken(), Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            names = creatingDroplets.get(account.getAuthToken());
+        }
+        return names;
+    }
+
+    /**
+     * Adds the droplets still being created to the droplets of each account, as new droplets, so that they count
+     * against the caps and limits like the droplets already listed.
+     */
+    private static Map<Account, List<Droplet>> withCreatingDroplets(Map<Account, List<Droplet>> droplets) {
+        Map<Account, List<Droplet>> all = new LinkedHashMap<Account, List<Droplet>>();
+        for (Map.Entry<Account, List<Droplet>> entry : droplets.entrySet()) {
+            List<Droplet> accountDroplets = new ArrayList<Droplet>(entry.getValue());
+            Set<String> listed = new HashSet<String>();
+            for (Droplet droplet : accountDroplets) {
+                listed.add(droplet.getName());
+            }
+            for (String dropletName : creatingDroplets(entry.getKey())) {
+                if (!listed.contains(dropletName)) {
+                    Droplet creating = new Droplet();
+                    creating.setName(dropletName);
+                    creating.setStatus(DropletStatus.NEW);
+                    accountDroplets.add(creating);
+                }
+            }
+            all.put(entry.getKey(), accountDroplets);
+        }
+        return all;
+    }
+
+    /**
+     * Starts launching a slave of the given template right away, outside of the {@link NodeProvisioner}, e.g. to
+     * replace a single-use slave that has just taken its build. Nothing is launched if the instance caps or the
+     * accounts' droplet limits leave no room for it.
+     */
+    void provisionReplacement(SlaveTemplate template) {
+        synchronized (getProvisionSynchronizor()) {
+            try {
+                if (getAvailableCapacity() == 0) {
+                    LOGGER.log(Level.INFO, capacityReason + ", not provisioning a replacement for " + template.getName());
+                    return;
+                }
+                if (template.isInstanceCapReached(this)) {
+                    LOGGER.log(Level.INFO, "Instance cap of template " + template.getName() + " reached, not provisioning a replacement.");
+                    return;
+                }
+                if (isQuarantined(template)) {
+                    LOGGER.log(Level.INFO, "Template " + template.getName() + " is quarantined, not provisioning a replacement.");
+                    return;
+                }
+
+                String dropletName = DropletName.generateDropletName(name, template.getName());
+                LOGGER.info("Provisioning replacement " + dropletName + " for a single-use slave of " + template.getName());
+                DropletLaunch.start(this, template, dropletName);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
     @Override
     public boolean canProvision(Label label) {
-        synchronized (provisionSynchronizor) {
+        synchronized (getProvisionSynchronizor()) {
             try {
                 SlaveTemplate template = getTemplateBelowInstanceCap(label);
                 if (template == null) {
-                    LOGGER.log(Level.INFO, "No slaves could provision for label " + label.getDisplayName() + " because they either dodn't support such a label or have reached the instance cap.");
+                    LOGGER.log(Level.FINE, "No slaves could provision for label " + label.getDisplayName() + " because they either dodn't support such a label, have reached the instance cap or are quarantined.");
                     return false;
                 }
 
                 if (isInstanceCapReached()) {
-                    LOGGER.log(Level.INFO, "Instance cap of " + getInstanceCap() + " reached, not provisioning.");
+                    LOGGER.log(Level.INFO, capacityReason + ", not provisioning.");
                     return false;
                 }
-
-
+            } catch (CircuitBreaker.OpenException e) {
+                LOGGER.log(Level.INFO, e.getMessage() + ", not provisioning.");
+                return false;
             } catch (Exception e) {
+                // trying to provision anyway would only fail again
                 LOGGER.log(Level.WARNING, e.getMessage(), e);
+                return false;
             }
 
             return true;
         }
     }
 
+    /**
+     * Finds the templates that can provision slaves for the given label. This is called for every label on every
+     * provisioning attempt, so the result is memoized per label expression.
+     * @param label the label to match, null matching only the templates without labels
+     * @return the matching templates, in the order they are configured in
+     */
     public List<SlaveTemplate> getTemplates(Label label) {
+        String key = label == null ? "" : label.getExpression();
+        List<SlaveTemplate> matchingTemplates = templatesByLabel.get(key);
+
+        if (matchingTemplates == null) {
+            if (templatesByLabel.size() >= MAX_CACHED_LABELS) {
+                templatesByLabel.clear();
+            }
+            matchingTemplates = Collections.unmodifiableList(matchTemplates(label));
+            templatesByLabel.put(key, matchingTemplates);
+        }
+
+        return matchingTemplates;
+    }
+
+    private List<SlaveTemplate> matchTemplates(Label label) {
         List<SlaveTemplate> matchingTemplates = new ArrayList<SlaveTemplate>();
 
         for (SlaveTemplate t : templates) {
@@ -286,7 +666,7 @@ public class Cloud extends hudson.slaves.Cloud {
 
         try {
             for (SlaveTemplate t : matchingTempaltes) {
-                if (!t.isInstanceCapReached(authToken, name)) {
+                if (!isQuarantined(t) && !t.isInstanceCapReached(this)) {
                     return t;
                 }
             }
@@ -297,6 +677,28 @@ public class Cloud extends hudson.slaves.Cloud {
         return null;
     }
 
+    /**
+     * Whether the launches of the given template have failed too often in a row to provision it for now.
+     */
+    private boolean isQuarantined(SlaveTemplate template) {
+        TemplateQuarantine quarantine = TemplateQuarantine.getIfPresent(name, template.getName());
+        return quarantine != null && quarantine.isQuarantined();
+    }
+
+    /**
+     * @return the launch failures of this cloud's templates that have failed to launch at least once
+     */
+    public List<TemplateQuarantine> getTemplateQuarantines() {
+        List<TemplateQuarantine> quarantines = new ArrayList<TemplateQuarantine>();
+        for (SlaveTemplate t : templates) {
+            TemplateQuarantine quarantine = TemplateQuarantine.getIfPresent(name, t.getName());
+            if (quarantine != null) {
+                quarantines.add(quarantine);
+            }
+        }
+        return quarantines;
+    }
+
     public String getName() {
         return name;
     }
@@ -317,14 +719,138 @@ public class Cloud extends hudson.slaves.Cloud {
         return instanceCap;
     }
 
-    public DigitalOceanClient getApiClient() {
-        return new DigitalOceanClient(authToken);
+    /**
+     * @return the additional accounts
+     */
+    public List<Account> getAccounts() {
+        return Collections.unmodifiableList(accounts == null ? Collections.<Account>emptyList() : accounts);
+    }
+
+    /**
+     * @return the account configured on the cloud itself, followed by the additional accounts
+     */
+    public List<Account> getAllAccounts() {
+        return allAccounts;
+    }
+
+    /**
+     * @param accountName the name of the account, null or empty for the account configured on the cloud itself
+     * @return the account, or null if there is no account with this name
+     */
+    public Account getAccount(String accountName) {
+        String wanted = accountName == null ? "" : accountName;
+        for (Account account : allAccounts) {
+            if (account.getName().equals(wanted)) {
+                return account;
+            }
+        }
+        return null;
+    }
+
+    public ApiClient getApiClient() {
+        return DigitalOcean.newClient(authToken);
+    }
+
+    /**
+     * @return the metrics of the API calls made with this cloud's auth token
+     */
+    public ApiMetrics getApiMetrics() {
+        return ApiMetrics.forToken(authToken);
+    }
+
+    /**
+     * @return the state of the API calls made in the background, see {@link AsyncApiClient}
+     */
+    public String getAsyncApiStatus() {
+        return AsyncApiClient.describe();
+    }
+
+    /**
+     * Describes how well the sizes of this cloud's templates fit the load of their slaves over the last week, with
+     * recommendations for cheaper sizes or fewer executors where they would do.
+     * @return a description per template that has been sampled enough
+     */
+    public List<String> getUtilizationReports() {
+        List<String> reports = new ArrayList<String>();
+
+        try {
+            for (SlaveTemplate t : templates) {
+                Utilization utilization = Utilization.get(name, t.getName());
+                if (utilization == null) {
+                    continue;
+                }
+                Size size = DigitalOcean.getSize(authToken, t.getSizeId());
+                if (size == null) {
+                    continue;
+                }
+                String report = utilization.recommend(t.getName(), size, DigitalOcean.getCachedSizes(authToken),
+                        t.getRegionId(), t.getNumExecutors());
+                if (report != null) {
+                    reports.add(report);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to fetch the droplet sizes for utilization reports", e);
+        }
+
+        return reports;
+    }
+
+    /**
+     * Serves the metrics of the API calls made with this cloud's auth token as JSON, or with the auth token of the
+     * account named by the {@code account} query parameter.
+     */
+    public void doApiMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        Account account = getAccount(req.getParameter("account"));
+        if (account == null) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND, "No such account");
+            return;
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(account.getApiMetrics().toJson());
+    }
+
+    /**
+     * Pre-warms slaves, see {@link #prewarm(Label, int)}, for the {@code label} and {@code count} parameters, and
+     * serves the names of the slaves being launched as JSON.
+     */
+    @RequirePOST
+    public void doPrewarm(StaplerRequest req, StaplerResponse rsp, @QueryParameter String label,
+                          @QueryParameter int count) throws IOException {
+        Jenkins.getInstance().checkPermission(PROVISION);
+        if (Strings.isNullOrEmpty(label) || count <= 0) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Both a label and a positive count are required");
+            return;
+        }
+
+        JSONArray launching = new JSONArray();
+        for (NodeProvisioner.PlannedNode node : prewarm(Jenkins.getInstance().getLabel(label), count)) {
+            launching.add(node.displayName);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("launching", launching);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(result);
     }
 
     public List<SlaveTemplate> getTemplates() {
         return Collections.unmodifiableList(templates);
     }
 
+    /**
+     * @return the template with the given name, or null if there is none
+     */
+    public SlaveTemplate getTemplate(String templateName) {
+        for (SlaveTemplate t : templates) {
+            if (t.getName().equals(templateName)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
     public Integer getTimeoutMinutes() {
         return timeoutMinutes;
     }
@@ -340,9 +866,21 @@ public class Cloud extends hudson.slaves.Cloud {
             return "Digital Ocean";
         }
 
+        /**
+         * Creates the cloud from the submitted configuration. The configuration has likely been fixed, so its
+         * quarantined templates are tried again. This isn't done in the constructor, as clouds are constructed for
+         * other reasons than saving the configuration as well.
+         */
+        @Override
+        public hudson.slaves.Cloud newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            hudson.slaves.Cloud cloud = super.newInstance(req, formData);
+            TemplateQuarantine.reset(cloud.name);
+            return cloud;
+        }
+
         public FormValidation doTestConnection(@QueryParameter String authToken) {
             try {
-                DigitalOceanClient client = new DigitalOceanClient(authToken);
+                ApiClient client = DigitalOcean.newClient(authToken);
                 client.getAvailableDroplets(1, 10);
                 return FormValidation.ok("Digitalocean API request succeeded.");
             } catch (Exception e) {
@@ -25,12 +25,24 @@
 
 package com.dubture.jenkins.digitalocean;
 
+import com.google.common.base.Strings;
 import com.myjeeva.digitalocean.exception.DigitalOceanException;
 import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
-import com.myjeeva.digitalocean.impl.DigitalOceanClient;
+import com.myjeeva.digitalocean.pojo.Action;
 import com.myjeeva.digitalocean.pojo.Droplet;
+import hudson.FilePath;
+import hudson.model.Executor;
+import hudson.model.Queue;
 import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.OfflineCause;
+import hudson.util.LogTaskListener;
+import hudson.util.TimeUnit2;
+import jenkins.model.Jenkins;
 
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -49,25 +61,357 @@ public class Computer extends AbstractCloudComputer<Slave> {
 
     private Integer dropletId;
 
+    /**
+     * Set while the slave is being recycled, so that the retention strategy doesn't terminate it in the meantime.
+     */
+    private volatile boolean recycling;
+
+    /**
+     * When the slave was last recycled, 0 if it never was.
+     */
+    private volatile long recycledAtMillis;
+
+    /**
+     * Set while the slave's dependency caches are being saved before it's terminated.
+     */
+    private volatile boolean savingCache;
+
+    /**
+     * Set once a single-use slave has taken its build, after which it takes no more builds.
+     */
+    private volatile boolean usedUp;
+
+    /**
+     * Set once a used up single-use slave is being terminated.
+     */
+    private boolean terminating;
+
+    /**
+     * Droplet information that is already known, e.g. from listing all droplets, so that the launcher can skip
+     * fetching it.
+     */
+    private volatile Droplet cachedDroplet;
+
+    /**
+     * Why the launcher failed to bootstrap the slave, if it did.
+     */
+    private volatile LaunchFailure launchFailure;
+
+    /**
+     * Terminates the slave once it has been idle for too long, cancelled when it takes a build.
+     */
+    private final AtomicReference<ScheduledFuture<?>> terminationTimer = new AtomicReference<ScheduledFuture<?>>();
+
     public Computer(Slave slave) {
         super(slave);
         dropletId = slave.getDropletId();
-        authToken = slave.getCloud().getAuthToken();
+        authToken = slave.getAuthToken();
+        NodeCounter.add(slave.getNodeName());
     }
 
     public Droplet updateInstanceDescription() throws RequestUnsuccessfulException, DigitalOceanException {
-        DigitalOceanClient apiClient = new DigitalOceanClient(authToken);
+        ApiClient apiClient = DigitalOcean.newClient(authToken);
         return apiClient.getDropletInfo(dropletId);
     }
 
+    void setCachedDroplet(Droplet droplet) {
+        cachedDroplet = droplet;
+    }
+
+    /**
+     * Returns the cached droplet information, if any, and clears it, so that it's used at most once.
+     */
+    Droplet takeCachedDroplet() {
+        Droplet droplet = cachedDroplet;
+        cachedDroplet = null;
+        return droplet;
+    }
+
+    void setLaunchFailure(LaunchFailure failure) {
+        launchFailure = failure;
+    }
+
+    LaunchFailure getLaunchFailure() {
+        return launchFailure;
+    }
+
     @Override
     protected void onRemoved() {
         super.onRemoved();
+        NodeCounter.remove(getName());
+        DropletLaunch.onNodeRemoved(getName(), launchFailure);
 
         LOGGER.info("Slave removed, deleting droplet " + dropletId);
         DigitalOcean.tryDestroyDropletAsync(authToken, dropletId);
     }
 
+    /**
+     * Tries to hand the slave over to the next queued build instead of terminating it, as configured by its
+     * {@link RecycleMode}. The actual recycling happens asynchronously, as this is called while holding the queue lock.
+     *
+     * <p>A slave is recycled only if the queue has a buildable item it could take and if it has run a build since
+     * it was last recycled, so that a slave nobody wants doesn't get recycled over and over again.
+     *
+     * @return true if the slave is being recycled and must not be terminated
+     */
+    boolean tryRecycle() {
+        final Slave slave = getNode();
+        if (slave == null || recycling || usedUp) {
+            return false;
+        }
+
+        final RecycleMode mode = slave.getRecycleMode();
+        if (mode == RecycleMode.NONE || getIdleStartMilliseconds() <= recycledAtMillis || !hasQueuedWorkFor(slave)) {
+            return false;
+        }
+
+        LOGGER.info("Recycling slave " + getName() + " instead of terminating it, recycle mode " + mode);
+        recycling = true;
+        // the queue must not hand the slave a build while its workspace is being wiped or its droplet rebuilt
+        final boolean acceptingTasks = isAcceptingTasks();
+        setAcceptingTasks(false);
+
+        threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mode == RecycleMode.REBUILD) {
+                        rebuild(slave);
+                    } else {
+                        resetWorkspace(slave);
+                    }
+                    recycledAtMillis = System.currentTimeMillis();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to recycle slave " + getName() + ", terminating it instead", e);
+                    try {
+                        Jenkins.getInstance().removeNode(slave);
+                    } catch (IOException ee) {
+                        LOGGER.log(Level.WARNING, ee.getMessage(), ee);
+                    }
+                } finally {
+                    recycling = false;
+                    setAcceptingTasks(acceptingTasks);
+                    scheduleTermination();
+                }
+            }
+        });
+
+        return true;
+    }
+
+    private static boolean hasQueuedWorkFor(Slave slave) {
+        for (Queue.BuildableItem item : Jenkins.getInstance().getQueue().getBuildableItems()) {
+            if (slave.canTake(item) == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resetWorkspace(Slave slave) throws IOException, InterruptedException {
+        FilePath workspace = slave.getWorkspaceRoot();
+        if (workspace == null) {
+            throw new IOException("Slave is offline, can't reset its workspace");
+        }
+        workspace.deleteContents();
+    }
+
+    private void rebuild(Slave slave) throws Exception {
+        disconnect(new RecyclingOfflineCause()).get();
+
+        Action action = DigitalOcean.rebuildDroplet(authToken, dropletId, slave.getImageId());
+        long timeout = TimeUnit2.MINUTES.toMillis(getCloud().getTimeoutMinutes());
+        if (!DigitalOcean.waitForAction(authToken, action.getId(), timeout)) {
+            throw new IOException("Rebuild of droplet " + dropletId + " has failed or timed out");
+        }
+
+        recycling = false;
+        connect(false);
+    }
+
+    public boolean isRecycling() {
+        return recycling;
+    }
+
+    /**
+     * Saves the slave's dependency caches, if its template keeps them, and terminates it afterwards. Saving happens
+     * asynchronously, as this is called while holding the queue lock; the slave takes no new builds in the meantime.
+     *
+     * @return true if the caches are being saved and the slave must not be terminated yet
+     */
+    boolean trySaveCache() {
+        final Slave slave = getNode();
+        if (slave == null || savingCache || isOffline()) {
+            return false;
+        }
+
+        final SlaveTemplate template = slave.getTemplate();
+        if (template == null || Strings.isNullOrEmpty(template.getCacheBucketUrl())
+                || Strings.isNullOrEmpty(template.getCachePaths())) {
+            return false;
+        }
+
+        savingCache = true;
+        setAcceptingTasks(false);
+
+        threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DependencyCache.save(slave, template, new LogTaskListener(LOGGER, Level.INFO));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to save the dependency cache of " + getName(), e);
+                } finally {
+                    try {
+                        slave.terminate();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to terminate " + getName(), e);
+                    }
+                }
+            }
+        });
+
+        return true;
+    }
+
+    public boolean isSavingCache() {
+        return savingCache;
+    }
+
+    @Override
+    public void taskAccepted(Executor executor, Queue.Task task) {
+        super.taskAccepted(executor, task);
+        setTerminationTimer(null);
+        retireIfSingleUse();
+    }
+
+    /**
+     * Stops a single-use slave from taking any more builds once it has taken one, and starts launching the slave that
+     * replaces it while the build is still running, so that the next build doesn't have to wait for a droplet to boot.
+     */
+    private synchronized void retireIfSingleUse() {
+        Slave slave = getNode();
+        final SlaveTemplate template = slave == null ? null : slave.getTemplate();
+        if (template == null || !template.isSingleUse() || usedUp) {
+            return;
+        }
+
+        usedUp = true;
+        setAcceptingTasks(false);
+
+        final Cloud cloud = slave.getCloud();
+        threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                cloud.provisionReplacement(template);
+            }
+        });
+    }
+
+    public boolean isUsedUp() {
+        return usedUp;
+    }
+
+    /**
+     * Changes the number of executors of the slave. Executors running builds are only removed once they are done.
+     */
+    void resizeExecutors(final int numExecutors) {
+        final Slave slave = getNode();
+        if (slave == null || numExecutors == slave.getNumExecutors()) {
+            return;
+        }
+
+        LOGGER.info("Changing the executors of " + getName() + " from " + slave.getNumExecutors() + " to " + numExecutors);
+        Queue.withLock(new Runnable() {
+            @Override
+            public void run() {
+                slave.setAdjustedNumExecutors(numExecutors);
+                setNode(slave);
+            }
+        });
+    }
+
+    @Override
+    public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        super.taskCompleted(executor, task, durationMS);
+        if (!terminateIfUsedUp()) {
+            scheduleTermination();
+        }
+    }
+
+    @Override
+    public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+        super.taskCompletedWithProblems(executor, task, durationMS, problems);
+        if (!terminateIfUsedUp()) {
+            scheduleTermination();
+        }
+    }
+
+    /**
+     * Terminates a single-use slave once it has run its build, saving its dependency caches first if its template
+     * keeps them. Happens asynchronously, as this is called while the build is completing.
+     * @return true if the slave is used up and being terminated
+     */
+    synchronized boolean terminateIfUsedUp() {
+        if (!usedUp) {
+            return false;
+        }
+        if (terminating) {
+            return true;
+        }
+        final Slave slave = getNode();
+        if (slave == null) {
+            return true;
+        }
+        terminating = true;
+        setTerminationTimer(null);
+        if (trySaveCache()) {
+            return true;
+        }
+
+        LOGGER.info("Single-use slave " + getName() + " has run its build, terminating it");
+        threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    slave.terminate();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to terminate " + getName(), e);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Schedules terminating the slave for when it will have been idle for too long, replacing an earlier schedule.
+     */
+    void scheduleTermination() {
+        hudson.slaves.RetentionStrategy<?> strategy = getRetentionStrategy();
+        if (strategy instanceof RetentionStrategy) {
+            ((RetentionStrategy) strategy).scheduleTermination(this);
+        }
+    }
+
+    /**
+     * Replaces the termination timer, cancelling the previous one.
+     * @param timer the new timer, or null to only cancel the previous one
+     */
+    void setTerminationTimer(ScheduledFuture<?> timer) {
+        ScheduledFuture<?> previous = terminationTimer.getAndSet(timer);
+        if (previous != null && previous != timer) {
+            previous.cancel(false);
+        }
+    }
+
+    /**
+     * The idle start the retention strategy goes by. Recycling a slave counts as it becoming idle, so that it gets a
+     * full idle period to pick up the queued build.
+     */
+    long getRetentionIdleStartMilliseconds() {
+        return Math.max(getIdleStartMilliseconds(), recycledAtMillis);
+    }
+
     public Cloud getCloud() {
         return getNode().getCloud();
     }
@@ -82,4 +426,11 @@ public class Computer extends AbstractCloudComputer<Slave> {
     public long getStartTimeMillis() {
         return getNode().getStartTimeMillis();
     }
+
+    private static class RecyclingOfflineCause extends OfflineCause {
+        @Override
+        public String toString() {
+            return "Droplet is being rebuilt for reuse";
+        }
+    }
 }
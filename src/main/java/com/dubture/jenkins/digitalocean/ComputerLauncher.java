@@ -29,7 +29,6 @@ import com.google.common.base.Strings;
 import com.myjeeva.digitalocean.exception.DigitalOceanException;
 import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
 import com.myjeeva.digitalocean.pojo.Droplet;
-import com.myjeeva.digitalocean.pojo.Network;
 import com.trilead.ssh2.Connection;
 import com.trilead.ssh2.SCPClient;
 import com.trilead.ssh2.Session;
@@ -134,6 +133,7 @@ public class ComputerLauncher extends hudson.slaves.ComputerLauncher {
     public void launch(SlaveComputer _computer, TaskListener listener) {
 
         Computer computer = (Computer)_computer;
+        computer.setLaunchFailure(null);
         PrintStream logger = listener.getLogger();
 
         Date startDate = new Date();
@@ -149,23 +149,36 @@ public class ComputerLauncher extends hudson.slaves.ComputerLauncher {
             logger.println("Authenticating as " + computer.getRemoteAdmin());
             if (!conn.authenticateWithPublicKey(computer.getRemoteAdmin(), computer.getNode().getPrivateKey().toCharArray(), "")) {
                 logger.println("Authentication failed");
+                computer.setLaunchFailure(LaunchFailure.SSH_AUTH);
                 throw new Exception("Authentication failed");
             }
 
             final SCPClient scp = conn.createSCPClient();
 
+            if (!mountVolume(computer, logger, conn, scp)) {
+                return;
+            }
+
+            SlaveTemplate template = computer.getNode().getTemplate();
+            if (template != null) {
+                DependencyCache.restore(template, logger, conn);
+            }
+
             if (!runInitScript(computer, logger, conn, scp)) {
+                computer.setLaunchFailure(LaunchFailure.INIT_SCRIPT);
                 return;
             }
 
             if (!installJava(logger, conn)) {
+                computer.setLaunchFailure(LaunchFailure.JAVA_INSTALL);
                 return;
             }
 
             logger.println("Copying slave.jar");
             scp.put(Jenkins.getInstance().getJnlpJars("slave.jar").readFully(), "slave.jar","/tmp");
             String jvmOpts = Util.fixNull(computer.getNode().getJvmOpts());
-            String launchString = "java " + jvmOpts + " -jar /tmp/slave.jar";
+            String remotingOpts = Util.fixNull(computer.getNode().getRemotingOpts());
+            String launchString = "java " + jvmOpts + " -jar /tmp/slave.jar " + remotingOpts;
             logger.println("Launching slave agent: " + launchString);
             final Session sess = conn.openSession();
             sess.execCommand(launchString);
@@ -179,6 +192,7 @@ public class ComputerLauncher extends hudson.slaves.ComputerLauncher {
 
             successful = true;
         } catch (Exception e) {
+            // failures that aren't classified, e.g. network errors, don't count against the template
             try {
                 Jenkins.getInstance().removeNode(computer.getNode());
             } catch (Exception ee) {
@@ -195,6 +209,47 @@ public class ComputerLauncher extends hudson.slaves.ComputerLauncher {
         }
     }
 
+    private boolean mountVolume(final Computer computer, final PrintStream logger, final Connection conn, final SCPClient scp)
+            throws IOException, InterruptedException {
+
+        VolumePool.Lease lease = computer.getNode().getVolumeLease();
+
+        if (lease == null) {
+            return true;
+        }
+
+        logger.println("Mounting volume " + lease.getVolumeName() + " at " + lease.getMountPath());
+
+        String sudo = computer.getRemoteAdmin().equals("root") ? "" : "sudo ";
+        String device = lease.getDevicePath();
+        String mountPath = lease.getMountPath();
+        // the volume may still be attaching, and a volume that was never used has no filesystem yet
+        String script = "#!/bin/sh\n"
+                + "for i in $(seq 60); do [ -e " + device + " ] && break; sleep 2; done\n"
+                + sudo + "blkid " + device + " || " + sudo + "mkfs.ext4 -q -F " + device + " || exit 1\n"
+                + sudo + "mkdir -p " + mountPath + " || exit 1\n"
+                + "mountpoint -q " + mountPath + " || " + sudo + "mount -o discard,defaults " + device + " " + mountPath + " || exit 1\n"
+                + sudo + "chown " + computer.getRemoteAdmin() + " " + mountPath + "\n";
+
+        scp.put(script.getBytes("UTF-8"), "mount-volume.sh", "/tmp", "0700");
+        Session session = conn.openSession();
+        session.requestDumbPTY(); // sudo needs a tty
+        session.execCommand("/tmp/mount-volume.sh");
+
+        session.getStdin().close();
+        session.getStderr().close();
+        IOUtils.copy(session.getStdout(), logger);
+
+        int exitStatus = waitCompletion(session);
+        session.close();
+        if (exitStatus != 0) {
+            logger.println("Mounting the volume failed: exit code=" + exitStatus);
+            return false;
+        }
+
+        return true;
+    }
+
     private boolean runInitScript(final Computer computer, final PrintStream logger, final Connection conn, final SCPClient scp)
             throws IOException, InterruptedException {
 
@@ -266,19 +321,23 @@ public class ComputerLauncher extends hudson.slaves.ComputerLauncher {
 
         while ((waitTime = System.currentTimeMillis() - startTime) < timeout) {
 
-            // Hack to fetch this each time through the loop to get the latest information.
-            final Droplet droplet = DigitalOcean.getDroplet(
-                    computer.getCloud().getAuthToken(),
-                    computer.getNode().getDropletId());
+            // Hack to fetch this each time through the loop to get the latest information,
+            // unless it's already known, e.g. from the startup reconciliation.
+            Droplet droplet = computer.takeCachedDroplet();
+            if (droplet == null) {
+                droplet = DigitalOcean.getDroplet(
+                        computer.getNode().getAuthToken(),
+                        computer.getNode().getDropletId());
+            }
 
             if (isDropletStarting(droplet)) {
                 logger.println("Waiting for droplet to enter ACTIVE state. Sleeping " + sleepTime + " seconds.");
             }
             else {
                 try {
-                    final String host = getIpAddress(computer);
+                    final String host = computer.getNode().getNetworkType().getIpAddress(droplet);
 
-                    if (Strings.isNullOrEmpty(host) || "0.0.0.0".equals(host)) {
+                    if (Strings.isNullOrEmpty(host)) {
                         logger.println("No ip address yet, your host is most likely waiting for an ip address.");
                     }
                     else {
@@ -330,19 +389,6 @@ public class ComputerLauncher extends hudson.slaves.ComputerLauncher {
         return conn;
     }
 
-    private static String getIpAddress(Computer computer) throws RequestUnsuccessfulException, DigitalOceanException {
-        Droplet instance = computer.updateInstanceDescription();
-
-        for (final Network network : instance.getNetworks().getVersion4Networks()) {
-            String host = network.getIpAddress();
-            if (host != null) {
-                return host;
-            }
-        }
-
-        return null;
-    }
-
     private int waitCompletion(Session session) throws InterruptedException {
         // I noticed that the exit status delivery often gets delayed. Wait up to 1 sec.
         for( int i=0; i<10; i++ ) {
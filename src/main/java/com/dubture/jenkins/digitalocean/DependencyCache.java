@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.trilead.ssh2.Connection;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+
+/**
+ * Restores and saves a slave's dependency caches (e.g. ~/.m2 or ~/.gradle) from and to an S3-compatible bucket.
+ *
+ * <p>Cache archives are content addressed: they're stored under the hash of a manifest listing the cached files and
+ * their sizes, and a small pointer object names the latest archive. The archives are transferred by the droplet
+ * itself using presigned URLs, only the pointer goes through Jenkins. A slave uploads its caches on termination only
+ * if their manifest differs from the latest one, so slaves that didn't download anything new upload nothing.
+ */
+final class DependencyCache {
+
+    private static final String POINTER_KEY = "latest";
+
+    private static final int URL_EXPIRY_SECONDS = 60 * 60;
+
+    private static final String EMPTY_MANIFEST_HASH = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static final String ARCHIVE_PATH = "/tmp/dependency-cache.tar.gz";
+
+    private DependencyCache() {
+    }
+
+    /**
+     * Restores the latest cache archive of the template onto a droplet being launched. A slave without caches still
+     * works, so failures are only reported to the launch log.
+     */
+    static void restore(SlaveTemplate template, PrintStream logger, Connection conn) throws InterruptedException {
+        try {
+            CacheBucket bucket = template.getCacheBucket();
+            if (bucket == null) {
+                return;
+            }
+
+            String hash = getLatestHash(bucket, template);
+            if (hash == null) {
+                logger.println("No dependency cache saved yet");
+                return;
+            }
+
+            logger.println("Restoring dependency cache " + hash);
+            URL url = bucket.presign("GET", getArchiveKey(template, hash), URL_EXPIRY_SECONDS);
+            String command = "curl -fsS --retry 3 '" + url + "' | tar xzf - -C \"$HOME\"";
+            if (conn.exec(command, logger) != 0) {
+                logger.println("Failed to restore the dependency cache, continuing without it");
+            }
+        } catch (IOException e) {
+            logger.println("Failed to restore the dependency cache, continuing without it: " + e);
+        }
+    }
+
+    /**
+     * Uploads the caches of an online slave, unless they haven't changed since the latest archive.
+     */
+    static void save(Slave slave, SlaveTemplate template, TaskListener listener) throws IOException, InterruptedException {
+        CacheBucket bucket = template.getCacheBucket();
+        if (bucket == null) {
+            return;
+        }
+
+        Launcher launcher = slave.createLauncher(listener);
+        String paths = template.getCachePaths();
+
+        // sizes rather than modification times, which don't survive the round trip through tar exactly
+        String hash = run(launcher, listener, "cd \"$HOME\" && find " + paths
+                + " -type f -printf '%p %s\\n' 2>/dev/null | sort | sha256sum | cut -c1-64").trim();
+        if (hash.length() != 64) {
+            throw new IOException("Failed to compute the cache manifest of " + slave.getNodeName() + ": " + hash);
+        }
+        if (hash.equals(EMPTY_MANIFEST_HASH) || hash.equals(getLatestHash(bucket, template))) {
+            listener.getLogger().println("Dependency cache of " + slave.getNodeName() + " is unchanged");
+            return;
+        }
+
+        listener.getLogger().println("Saving dependency cache " + hash + " of " + slave.getNodeName());
+        URL url = bucket.presign("PUT", getArchiveKey(template, hash), URL_EXPIRY_SECONDS);
+        run(launcher, listener, "cd \"$HOME\" && tar czf " + ARCHIVE_PATH + " --ignore-failed-read " + paths
+                + " && curl -fsS --retry 3 --upload-file " + ARCHIVE_PATH + " '" + url + "'"
+                + "; status=$?; rm -f " + ARCHIVE_PATH + "; exit $status");
+
+        // only point to the archive once it's completely uploaded
+        bucket.putString(getPointerKey(template), hash);
+    }
+
+    private static String getLatestHash(CacheBucket bucket, SlaveTemplate template) throws IOException {
+        String hash = bucket.getString(getPointerKey(template));
+        return hash == null ? null : hash.trim();
+    }
+
+    private static String getPointerKey(SlaveTemplate template) {
+        return template.getName() + "/" + POINTER_KEY;
+    }
+
+    private static String getArchiveKey(SlaveTemplate template, String hash) {
+        return template.getName() + "/" + hash + ".tar.gz";
+    }
+
+    private static String run(Launcher launcher, TaskListener listener, String command) throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // quiet, so that the presigned URLs don't end up in the logs
+        int status = launcher.launch().cmds("sh", "-c", command).stdout(out).stderr(listener.getLogger()).quiet(true).join();
+        if (status != 0) {
+            throw new IOException("Command failed with exit code " + status);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -26,13 +26,24 @@
 package com.dubture.jenkins.digitalocean;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.myjeeva.digitalocean.common.ActionStatus;
 import com.myjeeva.digitalocean.common.ImageType;
 import com.myjeeva.digitalocean.exception.DigitalOceanException;
 import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
 import com.myjeeva.digitalocean.impl.DigitalOceanClient;
+import com.myjeeva.digitalocean.pojo.Action;
+import com.myjeeva.digitalocean.pojo.Delete;
 import com.myjeeva.digitalocean.pojo.Droplet;
 import com.myjeeva.digitalocean.pojo.Droplets;
 import com.myjeeva.digitalocean.pojo.Image;
@@ -61,6 +72,50 @@ public final class DigitalOcean {
 
     private static final Logger LOGGER = Logger.getLogger(DigitalOcean.class.getName());
 
+    /**
+     * Creates the API clients for a given auth token.
+     */
+    interface ClientFactory {
+        DigitalOceanClient create(String authToken);
+    }
+
+    private static final ClientFactory DEFAULT_CLIENT_FACTORY = new ClientFactory() {
+        @Override
+        public DigitalOceanClient create(String authToken) {
+            return new DigitalOceanClient(authToken);
+        }
+    };
+
+    private static volatile ClientFactory clientFactory = DEFAULT_CLIENT_FACTORY;
+
+    /**
+     * Replaces the API client factory, e.g. with a fake DigitalOcean for load testing.
+     * @param factory the factory to use, or null to go back to the real API
+     */
+    static void setClientFactory(ClientFactory factory) {
+        clientFactory = factory == null ? DEFAULT_CLIENT_FACTORY : factory;
+
+        // whatever was cached came from the previous API
+        synchronized (cachedSizes) {
+            cachedSizesTimes.clear();
+        }
+        synchronized (cachedDropletLimits) {
+            cachedDropletLimitTimes.clear();
+        }
+        knownDroplets.clear();
+        CircuitBreaker.resetAll();
+    }
+
+    /**
+     * Creates an API client. All API access should go through the clients created here, so that it's recorded in
+     * the {@link ApiMetrics} of the auth token and held back by its {@link CircuitBreaker} while the API is failing.
+     * @param authToken the API authorisation token to use
+     * @return a new API client
+     */
+    static ApiClient newClient(String authToken) {
+        return CircuitBreaker.protect(authToken, ApiMetrics.instrument(authToken, clientFactory.create(authToken)));
+    }
+
     /**
      * Fetches all available droplet sizes.
      * @param authToken the API authorisation token to use
@@ -69,7 +124,7 @@ public final class DigitalOcean {
      * @throws RequestUnsuccessfulException
      */
     static List<Size> getAvailableSizes(String authToken) throws DigitalOceanException, RequestUnsuccessfulException {
-        DigitalOceanClient client = new DigitalOceanClient(authToken);
+        ApiClient client = newClient(authToken);
 
         List<Size> availableSizes = new ArrayList<Size>();
         int page = 0;
@@ -92,6 +147,112 @@ public final class DigitalOcean {
         return availableSizes;
     }
 
+    private static final long SIZE_CACHE_MILLIS = 60 * 60 * 1000;
+
+    private static final Map<String, List<Size>> cachedSizes = new HashMap<String, List<Size>>();
+
+    private static final Map<String, Long> cachedSizesTimes = new HashMap<String, Long>();
+
+    /**
+     * Looks up a droplet size by its slug.
+     * @param authToken the API authorisation token to use
+     * @param sizeId the slug of the size
+     * @return the {@link Size}, or null if there is no such size
+     * @throws DigitalOceanException
+     * @throws RequestUnsuccessfulException
+     */
+    static Size getSize(String authToken, String sizeId) throws DigitalOceanException, RequestUnsuccessfulException {
+        for (Size size : getCachedSizes(authToken)) {
+            if (size.getSlug().equals(sizeId)) {
+                return size;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fetches all available droplet sizes. The list of sizes rarely changes, so it's cached for an hour per auth
+     * token rather than fetched on every call.
+     * @param authToken the API authorisation token to use
+     * @return a list of {@link Size}s, sorted by their memory capacity
+     * @throws DigitalOceanException
+     * @throws RequestUnsuccessfulException
+     */
+    static List<Size> getCachedSizes(String authToken) throws DigitalOceanException, RequestUnsuccessfulException {
+        List<Size> sizes;
+
+        synchronized (cachedSizes) {
+            Long cachedAt = cachedSizesTimes.get(authToken);
+            sizes = cachedAt != null && System.currentTimeMillis() - cachedAt < SIZE_CACHE_MILLIS
+                    ? cachedSizes.get(authToken) : null;
+        }
+
+        if (sizes == null) {
+            sizes = getAvailableSizes(authToken);
+            synchronized (cachedSizes) {
+                cachedSizes.put(authToken, sizes);
+                cachedSizesTimes.put(authToken, System.currentTimeMillis());
+            }
+        }
+
+        return sizes;
+    }
+
+    private static final long ACCOUNT_CACHE_MILLIS = 10 * 60 * 1000;
+
+    private static final Map<String, Integer> cachedDropletLimits = new HashMap<String, Integer>();
+
+    private static final Map<String, Long> cachedDropletLimitTimes = new HashMap<String, Long>();
+
+    /**
+     * Fetches the number of droplets the account may have at once, across all of its users and tools. The limit is
+     * raised by DigitalOcean on request only, so it's cached for ten minutes per auth token.
+     * @param authToken the API authorisation token to use
+     * @return the droplet limit of the account
+     * @throws DigitalOceanException
+     * @throws RequestUnsuccessfulException
+     */
+    static int getDropletLimit(String authToken) throws DigitalOceanException, RequestUnsuccessfulException {
+        synchronized (cachedDropletLimits) {
+            Long cachedAt = cachedDropletLimitTimes.get(authToken);
+            if (cachedAt != null && System.currentTimeMillis() - cachedAt < ACCOUNT_CACHE_MILLIS) {
+                return cachedDropletLimits.get(authToken);
+            }
+        }
+
+        LOGGER.log(Level.INFO, "Fetching account information");
+        Integer dropletLimit = newClient(authToken).getAccountInfo().getDropletLimit();
+        int limit = dropletLimit == null ? Integer.MAX_VALUE : dropletLimit;
+
+        synchronized (cachedDropletLimits) {
+            cachedDropletLimits.put(authToken, limit);
+            cachedDropletLimitTimes.put(authToken, System.currentTimeMillis());
+        }
+        return limit;
+    }
+
+    /**
+     * Whether DigitalOcean refused to create a droplet because the account's droplet limit is reached, which it only
+     * tells by the message of the error.
+     */
+    static boolean isDropletLimitError(Throwable t) {
+        if (!(t instanceof DigitalOceanException)) {
+            return false;
+        }
+        String message = Strings.nullToEmpty(t.getMessage()).toLowerCase(Locale.ENGLISH);
+        return message.contains("droplet limit") || message.contains("more droplets than you are allowed");
+    }
+
+    /**
+     * Drops the cached droplet limit of the account, e.g. after DigitalOcean refused to create a droplet because of it.
+     */
+    static void invalidateDropletLimit(String authToken) {
+        synchronized (cachedDropletLimits) {
+            cachedDropletLimitTimes.remove(authToken);
+        }
+    }
+
     /**
      * Fetches all available images. Unlike the other getAvailable* methods, this returns a map because the values
      * are sorted by a key composed of their OS distribution and version, which is useful for display purposes. Backup
@@ -103,9 +264,9 @@ public final class DigitalOcean {
      * @throws RequestUnsuccessfulException
      */
     static SortedMap<String,Image> getAvailableImages(String authToken) throws DigitalOceanException, RequestUnsuccessfulException {
-        DigitalOceanClient client = new DigitalOceanClient(authToken);
+        ApiClient client = newClient(authToken);
 
-        SortedMap<String,Image> availableImages = new TreeMap<String,Image>(ignoringCase());
+        SortedMap<String,Image> availableImages = newImageMap();
 
         Images images;
         int page = 0;
@@ -113,23 +274,35 @@ public final class DigitalOcean {
         do {
             page += 1;
             images = client.getAvailableImages(page, Integer.MAX_VALUE);
-            for (Image image : images.getImages()) {
-                String prefix = getPrefix(image);
-                final String name = prefix + image.getDistribution() + " " + image.getName();
-                String numberedName = name;
-                int count = 2;
-                while (availableImages.containsKey(numberedName)) {
-                    numberedName = name + " (" + count + ")";
-                    count ++;
-                }
-                availableImages.put(numberedName, image);
-            }
+            addAvailableImages(availableImages, images.getImages());
         }
         while (images.getMeta().getTotal() > availableImages.size());
 
         return availableImages;
     }
 
+    /**
+     * Adds the given images to the map, keyed on their OS distribution and version. Images with the same name
+     * get a numbered suffix.
+     */
+    static void addAvailableImages(SortedMap<String,Image> availableImages, List<Image> images) {
+        for (Image image : images) {
+            String prefix = getPrefix(image);
+            final String name = prefix + image.getDistribution() + " " + image.getName();
+            String numberedName = name;
+            int count = 2;
+            while (availableImages.containsKey(numberedName)) {
+                numberedName = name + " (" + count + ")";
+                count ++;
+            }
+            availableImages.put(numberedName, image);
+        }
+    }
+
+    static SortedMap<String,Image> newImageMap() {
+        return new TreeMap<String,Image>(ignoringCase());
+    }
+
 	private static String getPrefix(Image image) {
 
 		if (image.getType() == ImageType.BACKUP) {
@@ -165,7 +338,7 @@ public final class DigitalOcean {
      * @throws RequestUnsuccessfulException
      */
     static List<Region> getAvailableRegions(String authToken) throws DigitalOceanException, RequestUnsuccessfulException {
-        DigitalOceanClient client = new DigitalOceanClient(authToken);
+        ApiClient client = newClient(authToken);
 
         List<Region> availableRegions = new ArrayList<Region>();
         Regions regions;
@@ -221,7 +394,7 @@ public final class DigitalOcean {
 
     static List<Key> getAvailableKeys(String authToken) throws RequestUnsuccessfulException, DigitalOceanException {
 
-        DigitalOceanClient client = new DigitalOceanClient(authToken);
+        ApiClient client = newClient(authToken);
         List<Key> availableKeys = new ArrayList<Key>();
 
         Keys keys;
@@ -246,7 +419,7 @@ public final class DigitalOcean {
      */
     static List<Droplet> getDroplets(String authToken) throws DigitalOceanException, RequestUnsuccessfulException {
         LOGGER.log(Level.INFO, "Listing all droplets");
-        DigitalOceanClient apiClient = new DigitalOceanClient(authToken);
+        ApiClient apiClient = newClient(authToken);
         List<Droplet> availableDroplets = newArrayList();
         Droplets droplets;
         int page = 0;
@@ -258,9 +431,43 @@ public final class DigitalOcean {
         }
         while (droplets.getMeta().getTotal() > availableDroplets.size());
 
+        knownDroplets.put(authToken, Collections.unmodifiableList(new ArrayList<Droplet>(availableDroplets)));
         return availableDroplets;
     }
 
+    /**
+     * The droplets listed last, by auth token.
+     */
+    private static final Map<String, List<Droplet>> knownDroplets = new ConcurrentHashMap<String, List<Droplet>>();
+
+    /**
+     * Lists all droplets like {@link #getDroplets(String)} does, except that while the {@link CircuitBreaker} of the
+     * auth token holds calls back, the droplets listed last are returned instead. They are good enough to count
+     * droplets against the limits, but not to tell what any single droplet is up to.
+     * @return the droplets, possibly as they were some time ago
+     * @throws DigitalOceanException
+     * @throws RequestUnsuccessfulException if the droplets can't be listed and were never listed before
+     */
+    static List<Droplet> getKnownDroplets(String authToken) throws DigitalOceanException, RequestUnsuccessfulException {
+        try {
+            return getDroplets(authToken);
+        } catch (DigitalOceanException e) {
+            return getKnownDroplets(authToken, e);
+        } catch (RequestUnsuccessfulException e) {
+            return getKnownDroplets(authToken, e);
+        }
+    }
+
+    private static <E extends Exception> List<Droplet> getKnownDroplets(String authToken, E e) throws E {
+        List<Droplet> droplets = knownDroplets.get(authToken);
+        // a failed probe leaves the breaker open as well
+        if (droplets == null || !CircuitBreaker.forToken(authToken).isOpen()) {
+            throw e;
+        }
+        LOGGER.log(Level.FINE, "Using the last known droplets, as the DigitalOcean API is failing", e);
+        return new ArrayList<Droplet>(droplets);
+    }
+
     /**
      * Fetches information for the specified droplet.
      * @param authToken the API authentication token to use
@@ -271,7 +478,7 @@ public final class DigitalOcean {
      */
     static Droplet getDroplet(String authToken, Integer dropletId) throws DigitalOceanException, RequestUnsuccessfulException {
         LOGGER.log(Level.INFO, "Fetching droplet " + dropletId);
-        return new DigitalOceanClient(authToken).getDropletInfo(dropletId);
+        return newClient(authToken).getDropletInfo(dropletId);
     }
 
     static Image newImage(String idOrSlug) {
@@ -287,6 +494,59 @@ public final class DigitalOcean {
         return image;
     }
 
+    /**
+     * Reimages the specified droplet in place, keeping its IP address and SSH keys.
+     * @param authToken the API authentication token to use
+     * @param dropletId the ID of the droplet to rebuild
+     * @param imageIdOrSlug the image to rebuild the droplet from, either a slug or an integer ID
+     * @return the rebuild action
+     * @throws DigitalOceanException
+     * @throws RequestUnsuccessfulException
+     */
+    static Action rebuildDroplet(String authToken, Integer dropletId, String imageIdOrSlug) throws DigitalOceanException, RequestUnsuccessfulException {
+        LOGGER.log(Level.INFO, "Rebuilding droplet " + dropletId + " from image " + imageIdOrSlug);
+        ApiClient client = newClient(authToken);
+
+        Integer imageId;
+        try {
+            imageId = Integer.parseInt(imageIdOrSlug);
+        } catch (NumberFormatException e) {
+            // the rebuild call accepts only numeric image IDs
+            imageId = client.getImageInfo(imageIdOrSlug).getId();
+        }
+
+        return client.rebuildDroplet(dropletId, imageId);
+    }
+
+    /**
+     * Polls the specified action until it either completes or errors out.
+     * @param authToken the API authentication token to use
+     * @param actionId the ID of the action to wait for
+     * @param timeoutMillis how long to wait before giving up
+     * @return true if the action has completed successfully, false if it has errored or timed out
+     * @throws DigitalOceanException
+     * @throws RequestUnsuccessfulException
+     * @throws InterruptedException
+     */
+    static boolean waitForAction(String authToken, Integer actionId, long timeoutMillis)
+            throws DigitalOceanException, RequestUnsuccessfulException, InterruptedException {
+        ApiClient client = newClient(authToken);
+        final long startTime = System.currentTimeMillis();
+
+        while (System.currentTimeMillis() - startTime < timeoutMillis) {
+            ActionStatus status = client.getActionInfo(actionId).getStatus();
+            if (status == ActionStatus.COMPLETED) {
+                return true;
+            }
+            if (status == ActionStatus.ERRORED) {
+                return false;
+            }
+            Thread.sleep(5000);
+        }
+
+        return false;
+    }
+
     static Set<Integer> toBeDestroyedDropletIds = new HashSet<Integer>();
 
     static void tryDestroyDropletAsync(final String authToken, final int dropletId) {
@@ -298,37 +558,77 @@ public final class DigitalOcean {
             }
             toBeDestroyedDropletIds.add(dropletId);
         }
+        // return the droplet's cache volume to its pool before the droplet goes away
+        VolumePool.detach(authToken, dropletId).addListener(new Runnable() {
+            @Override
+            public void run() {
+                destroyDroplet(authToken, dropletId, 0);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private static void destroyDroplet(final String authToken, final int dropletId, final int attempt) {
         // sometimes droplets have pending events during which you can't send other events.
         // one of such events in spinning up a new droplet, during which a droplet can't be
         // destroyed. so if we receive
         // "com.myjeeva.digitalocean.exception.DigitalOceanException: Droplet already has a pending event."
-        // we retry to destroy a droplet.
-        Thread t = new Thread(new Runnable() {
+        // we retry to destroy a droplet. the same goes for the API failing or the circuit breaker being open, as
+        // giving up would leave the droplet running.
+        Futures.addCallback(AsyncApiClient.forToken(authToken).deleteDroplet(dropletId, getDestroyRetryDelayMillis(attempt)),
+                new FutureCallback<Delete>() {
             @Override
-            public void run() {
-                DigitalOceanClient client = new DigitalOceanClient(authToken);
-                while (true) {
-                    try {
-                        client.deleteDroplet(dropletId);
-                        break;
-                    } catch (Exception e) {
-                        if (e.getMessage().contains("pending")) {
-                            try {
-                                Thread.sleep(10000);
-                            } catch (Exception ee) {
-                                // ignore
-                            }
-                            continue;
-                        }
-                        break;
-                    }
+            public void onSuccess(Delete result) {
+                synchronized (toBeDestroyedDropletIds) {
+                    toBeDestroyedDropletIds.remove(dropletId);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (isDestroyRetryable(t)) {
+                    ApiMetrics.forToken(authToken).recordRetry("deleteDroplet");
+                    LOGGER.log(Level.INFO, "Failed to destroy droplet " + dropletId + ", retrying in "
+                            + TimeUnit.MILLISECONDS.toSeconds(getDestroyRetryDelayMillis(attempt + 1)) + " s", t);
+                    destroyDroplet(authToken, dropletId, attempt + 1);
+                    return;
+                }
+                if (!isNotFound(t)) {
+                    LOGGER.log(Level.WARNING, "Failed to destroy droplet " + dropletId, t);
                 }
                 synchronized (toBeDestroyedDropletIds) {
                     toBeDestroyedDropletIds.remove(dropletId);
                 }
             }
         });
-        t.start();
+    }
+
+    /**
+     * @return how long to wait before the given attempt to destroy a droplet, doubling from 10 seconds up to 5 minutes
+     */
+    static long getDestroyRetryDelayMillis(int attempt) {
+        if (attempt == 0) {
+            return 0;
+        }
+        return Math.min(TimeUnit.SECONDS.toMillis(10) << Math.min(attempt - 1, 5), TimeUnit.MINUTES.toMillis(5));
+    }
+
+    /**
+     * Whether destroying a droplet failed for a reason that goes away, i.e. a pending event of the droplet, the API
+     * failing, the call timing out or being rejected by the {@link AsyncApiClient}, or the {@link CircuitBreaker}
+     * being open, rather than because the request was wrong or the droplet is gone already.
+     */
+    static boolean isDestroyRetryable(Throwable t) {
+        if (t instanceof DigitalOceanException) {
+            Integer status = ((DigitalOceanException) t).getHttpStatus();
+            return status == null || status >= 500 || status == 429
+                    || (t.getMessage() != null && t.getMessage().contains("pending"));
+        }
+        return t instanceof RequestUnsuccessfulException || t instanceof TimeoutException
+                || t instanceof RejectedExecutionException;
+    }
+
+    private static boolean isNotFound(Throwable t) {
+        return t instanceof DigitalOceanException && Integer.valueOf(404).equals(((DigitalOceanException) t).getHttpStatus());
     }
 
     private static Comparator<String> ignoringCase() {
@@ -0,0 +1,800 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.pojo.Droplet;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.NodeProvisioner;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.TimeUnit2;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives a single droplet from creation to an online slave without parking a thread for the duration of the boot.
+ *
+ * <p>A launch goes through the {@link State}s in order. All launches are advanced by a periodic tick running on a
+ * small scheduler: droplet statuses are fetched in one API call per account when several droplets are booting, the SSH
+ * port is probed with non-blocking connects, and only once SSH is reachable the slave is connected, which runs the
+ * (comparatively short) bootstrap in {@link ComputerLauncher}. The number of concurrent bootstraps is bounded, so the
+ * number of threads used stays constant regardless of how many droplets are being provisioned. Droplets are created
+ * by a separate bounded pool of workers and statuses are fetched by the {@link AsyncApiClient}, so that a burst of
+ * slow creates or a slow API doesn't hold up the ticks of the launches already underway.
+ *
+ * <p>{@link LaunchMode#INBOUND} slaves skip the address and SSH phases: once their droplet is active, the launch
+ * just waits for the slave to connect to Jenkins.
+ *
+ * <p>The {@link NodeProvisioner.PlannedNode} future of a launch is completed when its slave comes online, or
+ * completed exceptionally when the launch fails.
+ *
+ * <p>If the template has a hedging budget, a launch that has been waiting for its droplet to become active or
+ * reachable for longer than 90% of the template's recent launches took for the same phase is hedged: a second
+ * droplet is launched for the same planned node. The first of the two slaves to come online completes the planned
+ * node and the other one is destroyed right away; the planned node only fails once both launches have failed.
+ */
+public final class DropletLaunch {
+
+    public enum State {
+        PENDING,
+        CREATED,
+        ACTIVE,
+        IP_ASSIGNED,
+        SSH_READY,
+        BOOTSTRAPPED,
+        ONLINE,
+        FAILED
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DropletLaunch.class.getName());
+
+    private static final long TICK_MILLIS = 2000;
+
+    private static final long STATUS_POLL_MILLIS = Long.getLong(DropletLaunch.class.getName() + ".statusPollMillis", 5000);
+
+    private static final long SSH_PROBE_TIMEOUT_MILLIS = 10000;
+
+    private static final int MAX_CONCURRENT_BOOTSTRAPS =
+            Integer.getInteger(DropletLaunch.class.getName() + ".maxConcurrentBootstraps", 10);
+
+    private static final int MAX_WORKERS = Integer.getInteger(DropletLaunch.class.getName() + ".maxWorkers", 5);
+
+    /**
+     * Runs the ticks, which must never wait for a droplet to be created.
+     */
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2,
+            new NamingThreadFactory(new DaemonThreadFactory(), "DigitalOcean launch"));
+
+    /**
+     * Runs the blocking parts of launches, such as creating their droplets and attaching volumes to them.
+     */
+    private static final ExecutorService workers = Executors.newFixedThreadPool(MAX_WORKERS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "DigitalOcean launch worker"));
+
+    /**
+     * Launches in progress, by droplet (and node) name.
+     */
+    private static final Map<String, DropletLaunch> launches = new ConcurrentHashMap<String, DropletLaunch>();
+
+    private static final Semaphore bootstrapPermits = new Semaphore(MAX_CONCURRENT_BOOTSTRAPS);
+
+    static {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Throwable t) {
+                    LOGGER.log(Level.WARNING, "DigitalOcean launch tick failed", t);
+                }
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private final Cloud cloud;
+
+    private final SlaveTemplate template;
+
+    private final String dropletName;
+
+    /**
+     * The launch this one is a hedge for, or null.
+     */
+    private final DropletLaunch hedged;
+
+    /**
+     * Shared with the hedge, if there is one.
+     */
+    private final SettableFuture<Node> future;
+
+    private final Map<State, Long> stateTimes = new EnumMap<State, Long>(State.class);
+
+    private volatile State state;
+
+    private Slave slave;
+
+    private Droplet droplet;
+
+    private String host;
+
+    private SocketChannel sshProbe;
+
+    private long sshProbeStartMillis;
+
+    private long nextStatusPollMillis;
+
+    /**
+     * Set while the droplet's status is being fetched, so that a slow API doesn't pile up polls.
+     */
+    private boolean pollingStatus;
+
+    private boolean holdsBootstrapPermit;
+
+    /**
+     * Set while a volume is being attached to the droplet, the slave is only bootstrapped once it's done so that it
+     * can mount the volume.
+     */
+    private volatile boolean attachingVolume;
+
+    /**
+     * The hedge started for this launch, if any.
+     */
+    private DropletLaunch hedge;
+
+    private DropletLaunch(Cloud cloud, SlaveTemplate template, String dropletName, DropletLaunch hedged) {
+        this.cloud = cloud;
+        this.template = template;
+        this.dropletName = dropletName;
+        this.hedged = hedged;
+        this.future = hedged == null ? SettableFuture.<Node>create() : hedged.future;
+        transition(State.PENDING);
+    }
+
+    /**
+     * Starts launching a new droplet for the given template.
+     * @return a planned node that completes once the slave is online
+     */
+    static NodeProvisioner.PlannedNode start(Cloud cloud, SlaveTemplate template, String dropletName) {
+        DropletLaunch launch = new DropletLaunch(cloud, template, dropletName, null);
+        LaunchPhases.get(cloud.name, template.getName()).onLaunch();
+        launch.submit();
+
+        return new NodeProvisioner.PlannedNode(dropletName, launch.future, getInitialExecutors(cloud, template));
+    }
+
+    /**
+     * @return the number of executors the slave starts with, which is less than the template's number with automatic
+     * executors, so that the provisioner doesn't count on more executors than will arrive
+     */
+    private static int getInitialExecutors(Cloud cloud, SlaveTemplate template) {
+        try {
+            return template.getEffectiveNumExecutors(cloud.getAuthToken());
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to look up the executors of template " + template.getName(), e);
+            return template.getNumExecutors();
+        }
+    }
+
+    /**
+     * Whether the given node is being launched, in which case the launch takes care of connecting to it.
+     */
+    static boolean isLaunching(String nodeName) {
+        return launches.containsKey(nodeName);
+    }
+
+    /**
+     * Counts the launches of the given cloud for slaves with the given label that haven't come online or failed yet.
+     * A launch and its hedge count once.
+     */
+    static int countLaunching(Cloud cloud, Label label) {
+        int count = 0;
+        for (DropletLaunch launch : launches.values()) {
+            State launchState = launch.getState();
+            if (launch.hedged == null && launchState != State.ONLINE && launchState != State.FAILED
+                    && launch.cloud.name.equals(cloud.name) && label.matches(launch.template.getLabelSet())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param failure why the launcher failed to bootstrap the slave before removing it, null if it was removed for
+     *                some other reason
+     */
+    static void onNodeRemoved(String nodeName, LaunchFailure failure) {
+        DropletLaunch launch = launches.get(nodeName);
+        if (launch == null) {
+            return;
+        }
+        if (failure != null) {
+            launch.fail(new IOException("Failed to bootstrap slave " + nodeName), false, failure);
+        } else {
+            launch.fail(new IOException("Slave " + nodeName + " was removed while launching"), false, null);
+        }
+    }
+
+    private void submit() {
+        launches.put(dropletName, this);
+
+        workers.submit(new Runnable() {
+            @Override
+            public void run() {
+                create();
+            }
+        });
+    }
+
+    private void create() {
+        try {
+            if (hedged != null && (future.isDone() || template.isInstanceCapReached(cloud))) {
+                abandon();
+                return;
+            }
+
+            Slave newSlave = cloud.provisionSlave(template, dropletName);
+            if (newSlave == null) {
+                if (hedged == null) {
+                    launches.remove(dropletName);
+                    future.set(null);
+                } else {
+                    abandon();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                if (state == State.FAILED) {
+                    // superseded by the launch it hedged while the droplet was being created
+                    NodeCounter.remove(dropletName);
+                    DigitalOcean.tryDestroyDropletAsync(newSlave.getAuthToken(), newSlave.getDropletId());
+                    return;
+                }
+                slave = newSlave;
+                nextStatusPollMillis = System.currentTimeMillis() + STATUS_POLL_MILLIS;
+                transition(State.CREATED);
+            }
+            Jenkins.getInstance().addNode(newSlave);
+        } catch (Throwable t) {
+            fail(t, true, isCreateRejected(t) ? LaunchFailure.CREATE_REJECTED : null);
+        }
+    }
+
+    /**
+     * Whether the API rejected creating the droplet because of how its template is configured, e.g. an image that
+     * doesn't exist or a size that isn't available in the region, rather than because the API is failing or the
+     * account is out of droplets or API calls.
+     */
+    static boolean isCreateRejected(Throwable t) {
+        if (!(t instanceof DigitalOceanException)) {
+            return false;
+        }
+        Integer status = ((DigitalOceanException) t).getHttpStatus();
+        if (status == null || status < 400 || status >= 500 || status == 401 || status == 403 || status == 429) {
+            return false;
+        }
+        return !DigitalOcean.isDropletLimitError(t);
+    }
+
+    private static void tick() {
+        final long now = System.currentTimeMillis();
+        Map<String, List<DropletLaunch>> awaitingStatus = new HashMap<String, List<DropletLaunch>>();
+
+        for (DropletLaunch launch : launches.values()) {
+            synchronized (launch) {
+                if (launch.isTimedOut(now)) {
+                    launch.fail(new TimeoutException("Timed out after waiting " + launch.cloud.getTimeoutMinutes()
+                            + " minutes for droplet " + launch.dropletName + " to become reachable"), true,
+                            LaunchFailure.BOOT_TIMEOUT);
+                    continue;
+                }
+
+                switch (launch.state) {
+                    case ACTIVE:
+                        if (launch.template.getLaunchMode() == LaunchMode.INBOUND) {
+                            // the slave connects to Jenkins by itself once the droplet has booted
+                            break;
+                        }
+                        // fall through
+                    case CREATED:
+                        if (now >= launch.nextStatusPollMillis && !launch.pollingStatus) {
+                            launch.nextStatusPollMillis = now + STATUS_POLL_MILLIS;
+                            launch.pollingStatus = true;
+                            String authToken = launch.slave.getAuthToken();
+                            List<DropletLaunch> accountLaunches = awaitingStatus.get(authToken);
+                            if (accountLaunches == null) {
+                                accountLaunches = new ArrayList<DropletLaunch>();
+                                awaitingStatus.put(authToken, accountLaunches);
+                            }
+                            accountLaunches.add(launch);
+                        }
+                        break;
+                    case IP_ASSIGNED:
+                        launch.probeSsh(now);
+                        break;
+                    case SSH_READY:
+                        launch.bootstrap();
+                        break;
+                    default:
+                        break;
+                }
+
+                launch.hedgeIfSlow(now);
+            }
+        }
+
+        for (Map.Entry<String, List<DropletLaunch>> entry : awaitingStatus.entrySet()) {
+            pollStatus(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Fetches the droplets of the given launches, listing all droplets at once if there is more than one of them. The
+     * calls are made by the {@link AsyncApiClient}, so that a slow API doesn't hold up the ticks of the other
+     * launches, and the launches continue once the droplets have been fetched.
+     */
+    private static void pollStatus(String authToken, final List<DropletLaunch> accountLaunches) {
+        final AsyncApiClient client = AsyncApiClient.forToken(authToken);
+        ListenableFuture<List<Droplet>> droplets;
+        if (accountLaunches.size() == 1) {
+            droplets = Futures.transform(client.getDroplet(accountLaunches.get(0).slave.getDropletId()),
+                    new Function<Droplet, List<Droplet>>() {
+                        @Override
+                        public List<Droplet> apply(Droplet droplet) {
+                            return Collections.singletonList(droplet);
+                        }
+                    });
+        } else {
+            droplets = client.getDroplets();
+        }
+
+        Futures.addCallback(droplets, new FutureCallback<List<Droplet>>() {
+            @Override
+            public void onSuccess(List<Droplet> result) {
+                Map<Integer, Droplet> dropletsById = new HashMap<Integer, Droplet>();
+                for (Droplet droplet : result) {
+                    dropletsById.put(droplet.getId(), droplet);
+                }
+                for (DropletLaunch launch : accountLaunches) {
+                    synchronized (launch) {
+                        launch.pollingStatus = false;
+                        launch.onDropletStatus(dropletsById.get(launch.slave.getDropletId()));
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof CircuitBreaker.OpenException) {
+                    // retry on the next poll, the breaker has already logged why
+                    LOGGER.log(Level.FINE, t.getMessage());
+                } else {
+                    // retry on the next poll
+                    LOGGER.log(Level.WARNING, "Failed to fetch the status of booting droplets", t);
+                }
+                for (DropletLaunch launch : accountLaunches) {
+                    synchronized (launch) {
+                        launch.pollingStatus = false;
+                    }
+                }
+            }
+        });
+    }
+
+    private void onDropletStatus(Droplet update) {
+        if (state != State.CREATED && state != State.ACTIVE) {
+            return;
+        }
+
+        if (update == null) {
+            fail(new IOException("Droplet " + slave.getDropletId() + " is gone"), true, null);
+            return;
+        }
+
+        if (update.isNew()) {
+            return;
+        }
+
+        if (!update.isActive()) {
+            fail(new IllegalStateException("Droplet has unexpected status: " + update.getStatus()), true,
+                    LaunchFailure.DROPLET_ERRORED);
+            return;
+        }
+
+        if (state == State.CREATED) {
+            transition(State.ACTIVE);
+            attachVolume();
+        }
+
+        if (template.getLaunchMode() == LaunchMode.INBOUND) {
+            return;
+        }
+
+        String ipAddress = template.getNetworkType().getIpAddress(update);
+        if (ipAddress == null) {
+            return;
+        }
+
+        droplet = update;
+        host = ipAddress;
+        transition(State.IP_ASSIGNED);
+    }
+
+    /**
+     * Starts a hedge for this launch if the template allows it and this launch has spent longer in its current phase
+     * than the template's launches usually do.
+     */
+    private void hedgeIfSlow(long now) {
+        if (hedged != null || hedge != null || template.getHedgeBudget() == 0) {
+            return;
+        }
+        if (state != State.CREATED && state != State.ACTIVE && state != State.IP_ASSIGNED) {
+            return;
+        }
+
+        LaunchPhases phases = LaunchPhases.get(cloud.name, template.getName());
+        long p90 = phases.getP90(state);
+        long elapsed = now - stateTimes.get(state);
+        if (p90 < 0 || elapsed <= p90 || !phases.tryHedge(template.getHedgeBudget())) {
+            return;
+        }
+
+        hedge = new DropletLaunch(cloud, template, DropletName.generateDropletName(cloud.name, template.getName()), this);
+        LOGGER.info("Droplet " + dropletName + " has been " + state + " for " + elapsed + "ms, longer than the p90 of "
+                + p90 + "ms, hedging with droplet " + hedge.dropletName);
+        hedge.submit();
+    }
+
+    /**
+     * Attaches a volume from the template's volume pool, if it has one, on a worker, as it takes API calls. A slave
+     * without a volume still works, it just starts with empty caches, so failures are only logged.
+     */
+    private void attachVolume() {
+        if (template.getVolumePool().isEmpty()) {
+            return;
+        }
+
+        attachingVolume = true;
+        final Slave slave = this.slave;
+        workers.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    VolumePool.Lease lease = VolumePool.attach(slave.getAuthToken(), slave.getDropletId(), template);
+                    if (lease == null) {
+                        LOGGER.warning("No free volume in pool " + template.getVolumePool() + " for " + dropletName);
+                        return;
+                    }
+                    slave.setVolumeLease(lease);
+                    Jenkins.getInstance().updateNode(slave);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to attach a volume to " + dropletName, e);
+                } finally {
+                    attachingVolume = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks whether the SSH port accepts connections, without blocking the scheduler thread.
+     */
+    private void probeSsh(long now) {
+        try {
+            if (sshProbe == null) {
+                sshProbe = SocketChannel.open();
+                sshProbe.configureBlocking(false);
+                sshProbeStartMillis = now;
+                if (sshProbe.connect(new InetSocketAddress(host, template.getSshPort()))) {
+                    closeSshProbe();
+                    transition(State.SSH_READY);
+                }
+            } else if (sshProbe.finishConnect()) {
+                closeSshProbe();
+                transition(State.SSH_READY);
+            } else if (now - sshProbeStartMillis > SSH_PROBE_TIMEOUT_MILLIS) {
+                closeSshProbe();
+            }
+        } catch (IOException e) {
+            // connection refused or unreachable, SSH is not up yet
+            closeSshProbe();
+        }
+    }
+
+    private void closeSshProbe() {
+        if (sshProbe != null) {
+            try {
+                sshProbe.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            sshProbe = null;
+        }
+    }
+
+    private void bootstrap() {
+        if (attachingVolume || holdsBootstrapPermit || !bootstrapPermits.tryAcquire()) {
+            return;
+        }
+        holdsBootstrapPermit = true;
+
+        hudson.model.Computer computer = slave.toComputer();
+        if (!(computer instanceof Computer)) {
+            fail(new IOException("Slave " + dropletName + " has no computer"), true, null);
+            return;
+        }
+
+        ((Computer) computer).setCachedDroplet(droplet);
+        computer.connect(false);
+    }
+
+    private synchronized void onBootstrapped() {
+        // inbound slaves connect while the launch still waits for them in ACTIVE
+        if (state == State.SSH_READY || state == State.ACTIVE) {
+            transition(State.BOOTSTRAPPED);
+        }
+    }
+
+    private void onOnline() {
+        DropletLaunch other;
+        synchronized (this) {
+            if (!isInProgress()) {
+                return;
+            }
+            transition(State.ONLINE);
+            releaseResources();
+
+            if (!future.set(slave)) {
+                hudson.model.Computer computer = slave.toComputer();
+                if (computer != null && !computer.isIdle()) {
+                    // it already took a build, let it be terminated once idle like any other slave
+                    LOGGER.info("Droplet " + dropletName + " came online after the other droplet of its hedged launch and is already busy, keeping it");
+                    return;
+                }
+                LOGGER.info("Droplet " + dropletName + " came online after the other droplet of its hedged launch, destroying it");
+                removeNode();
+                return;
+            }
+
+            LOGGER.info("Droplet " + dropletName + " is online, launch phases took " + describePhases());
+            TemplateQuarantine.get(cloud.name, template.getName()).recordSuccess();
+            recordTrace();
+            other = hedged != null ? hedged : hedge;
+        }
+
+        // outside of the lock, the other launch may be completing at the same time
+        if (other != null) {
+            other.supersede(dropletName);
+        }
+    }
+
+    /**
+     * @param failure why the launch failed if it's the fault of the template, counted towards quarantining it
+     */
+    private synchronized void fail(Throwable cause, boolean removeNode, LaunchFailure failure) {
+        if (!isInProgress()) {
+            return;
+        }
+        LOGGER.log(Level.WARNING, "Failed to launch droplet " + dropletName + " in state " + state, cause);
+        if (failure != null && TemplateQuarantine.get(cloud.name, template.getName())
+                .recordFailure(failure, System.currentTimeMillis())) {
+            LOGGER.warning("Launches of template " + template.getName() + " keep failing, last with "
+                    + failure.getDisplayName() + ", not provisioning it for a while");
+        }
+        transition(State.FAILED);
+        releaseResources();
+
+        // a hedged launch only fails once both of its droplets have failed
+        DropletLaunch other = hedged != null ? hedged : hedge;
+        if (other == null || !other.isInProgress()) {
+            future.setException(cause);
+        }
+
+        if (removeNode) {
+            removeNode();
+        }
+    }
+
+    /**
+     * Stops this launch and destroys its droplet, as the other droplet of the hedged launch came online first.
+     */
+    private synchronized void supersede(String winner) {
+        if (!isInProgress()) {
+            return;
+        }
+        LOGGER.info("Droplet " + winner + " came online first, destroying droplet " + dropletName + " in state " + state);
+        transition(State.FAILED);
+        releaseResources();
+        removeNode();
+    }
+
+    /**
+     * Gives up on a hedge before creating its droplet, as the instance cap has been reached or the launch it hedged
+     * has already completed.
+     */
+    private synchronized void abandon() {
+        if (!isInProgress()) {
+            return;
+        }
+        transition(State.FAILED);
+        releaseResources();
+        if (!hedged.isInProgress()) {
+            future.setException(new IOException("Failed to launch droplet " + hedged.dropletName
+                    + ", and the instance cap was reached before it could be hedged"));
+        }
+    }
+
+    private boolean isInProgress() {
+        return state != State.FAILED && state != State.ONLINE;
+    }
+
+    private void removeNode() {
+        NodeCounter.remove(dropletName);
+        if (slave != null) {
+            try {
+                Jenkins.getInstance().removeNode(slave);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void releaseResources() {
+        launches.remove(dropletName);
+        closeSshProbe();
+        if (holdsBootstrapPermit) {
+            holdsBootstrapPermit = false;
+            bootstrapPermits.release();
+        }
+    }
+
+    /**
+     * The timeout applies to waiting for the droplet to become reachable, bootstrapping it is governed by the
+     * {@link ComputerLauncher}. Inbound slaves bootstrap themselves before connecting, so for them it covers the
+     * whole launch.
+     */
+    private boolean isTimedOut(long now) {
+        switch (state) {
+            case CREATED:
+            case ACTIVE:
+            case IP_ASSIGNED:
+                return now - stateTimes.get(State.CREATED) > TimeUnit2.MINUTES.toMillis(cloud.getTimeoutMinutes());
+            default:
+                return false;
+        }
+    }
+
+    private void transition(State newState) {
+        long now = System.currentTimeMillis();
+        // failed phases would only skew the durations towards the timeout
+        if (state != null && newState != State.FAILED) {
+            LaunchPhases.get(cloud.name, template.getName()).record(state, now - stateTimes.get(state));
+        }
+        state = newState;
+        stateTimes.put(newState, now);
+    }
+
+    private void recordTrace() {
+        if (!TraceRecorder.ENABLED) {
+            return;
+        }
+        StringBuilder phases = new StringBuilder();
+        Long previous = null;
+        for (Map.Entry<State, Long> entry : stateTimes.entrySet()) {
+            if (previous != null) {
+                phases.append(phases.length() == 0 ? "" : ",").append(entry.getKey()).append(':').append(entry.getValue() - previous);
+            }
+            previous = entry.getValue();
+        }
+        TraceRecorder.recordLaunch(cloud.name, template.getName(),
+                stateTimes.get(State.ONLINE) - stateTimes.get(State.PENDING), phases.toString());
+    }
+
+    private String describePhases() {
+        StringBuilder sb = new StringBuilder();
+        Long previous = null;
+        for (Map.Entry<State, Long> entry : stateTimes.entrySet()) {
+            if (previous != null) {
+                sb.append(entry.getKey()).append(" +").append(entry.getValue() - previous).append("ms ");
+            }
+            previous = entry.getValue();
+        }
+        return sb.toString().trim();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the state of the launch of the given node, or null if it isn't being launched
+     */
+    static State getState(String nodeName) {
+        DropletLaunch launch = launches.get(nodeName);
+        return launch == null ? null : launch.getState();
+    }
+
+    /**
+     * Completes the launches once their slaves are bootstrapped and online.
+     */
+    @Extension
+    public static class Listener extends ComputerListener {
+        @Override
+        public void preOnline(hudson.model.Computer c, Channel channel, FilePath root, TaskListener listener) {
+            DropletLaunch launch = launches.get(c.getName());
+            if (launch != null) {
+                launch.onBootstrapped();
+            }
+        }
+
+        @Override
+        public void onOnline(hudson.model.Computer c, TaskListener listener) {
+            DropletLaunch launch = launches.get(c.getName());
+            if (launch != null) {
+                launch.onOnline();
+            }
+        }
+
+        @Override
+        public void onLaunchFailure(hudson.model.Computer c, TaskListener taskListener) {
+            DropletLaunch launch = launches.get(c.getName());
+            if (launch != null) {
+                // the launcher has already logged the reason and decided whether to remove the slave
+                LaunchFailure failure = c instanceof Computer ? ((Computer) c).getLaunchFailure() : null;
+                launch.fail(new IOException("Failed to bootstrap slave " + c.getName()), false, failure);
+            }
+        }
+    }
+}
@@ -67,4 +67,21 @@ public class DropletName {
         return m.matches() && m.group(1).equals(cloudName) && m.group(2).equals(slaveName);
     }
 
+    /**
+     * @return the name of the cloud the droplet belongs to, or null if it's not a droplet created by this plugin
+     */
+    public static String getCloudName(final String dropletName) {
+        Matcher m = DROPLET_PATTERN.matcher(dropletName);
+        return m.matches() ? m.group(1) : null;
+    }
+
+    /**
+     * @return the name of the slave template the droplet was created from, or null if it's not a droplet created
+     * by this plugin
+     */
+    public static String getSlaveName(final String dropletName) {
+        Matcher m = DROPLET_PATTERN.matcher(dropletName);
+        return m.matches() ? m.group(2) : null;
+    }
+
 }
@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.pojo.Droplet;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reattaches the slaves that survived a Jenkins restart.
+ *
+ * <p>Instead of every slave polling the DigitalOcean API for its own droplet while launching, the droplets of
+ * each cloud are listed once. Slaves whose droplets are gone are removed right away, and the rest are connected
+ * with a bounded concurrency, using the droplet information from the listing so that the launcher doesn't have to
+ * fetch it again.
+ *
+ * <p>{@link RetentionStrategy#start(Computer)} defers connecting to the slaves loaded at startup until
+ * {@link #reconcileLoadedSlaves()} is called, which happens once all nodes and jobs are loaded. Slaves started after
+ * that, e.g. when the plugin is installed or updated without a restart, are connected right away.
+ */
+public class DropletReconciler {
+
+    private static final Logger LOGGER = Logger.getLogger(DropletReconciler.class.getName());
+
+    private static final int MAX_CONCURRENT_CONNECTS =
+            Integer.getInteger(DropletReconciler.class.getName() + ".maxConcurrentConnects", 10);
+
+    private static final Object lock = new Object();
+
+    private static boolean reconciled = false;
+
+    private static final List<Computer> pendingComputers = new ArrayList<Computer>();
+
+    /**
+     * Defers connecting to the given computer until the startup reconciliation runs.
+     * @param computer the computer to connect to
+     * @return true if the computer will be connected by the reconciliation, false if the reconciliation has
+     * already happened and the caller should connect it
+     */
+    static boolean deferConnect(Computer computer) {
+        synchronized (lock) {
+            if (!reconciled && !isStarting()) {
+                // Jenkins is up, so the startup reconciliation has either run or never will, e.g. if the plugin
+                // was installed without a restart
+                reconcileLoadedSlaves();
+            }
+            if (reconciled) {
+                return false;
+            }
+            pendingComputers.add(computer);
+            return true;
+        }
+    }
+
+    private static boolean isStarting() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins == null || jenkins.getInitLevel().compareTo(InitMilestone.COMPLETED) < 0;
+    }
+
+    /**
+     * Reconciles the slaves whose connection has been deferred so far, and stops deferring any further ones.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void reconcileLoadedSlaves() {
+        final List<Computer> computers;
+        synchronized (lock) {
+            reconciled = true;
+            computers = new ArrayList<Computer>(pendingComputers);
+            pendingComputers.clear();
+        }
+
+        if (computers.isEmpty()) {
+            return;
+        }
+
+        hudson.model.Computer.threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                reconcile(computers);
+            }
+        });
+    }
+
+    static void reconcile(List<Computer> computers) {
+        LOGGER.info("Reconciling " + computers.size() + " DigitalOcean slaves after restart");
+        final long startTime = System.currentTimeMillis();
+
+        Map<String, List<Computer>> computersByCloud = new HashMap<String, List<Computer>>();
+        for (Computer computer : computers) {
+            Slave slave = computer.getNode();
+            if (slave == null) {
+                continue;
+            }
+            List<Computer> cloudComputers = computersByCloud.get(slave.getCloudName());
+            if (cloudComputers == null) {
+                cloudComputers = new ArrayList<Computer>();
+                computersByCloud.put(slave.getCloudName(), cloudComputers);
+            }
+            cloudComputers.add(computer);
+        }
+
+        List<Computer> computersToConnect = new ArrayList<Computer>();
+
+        for (Map.Entry<String, List<Computer>> entry : computersByCloud.entrySet()) {
+            hudson.slaves.Cloud cloud = Jenkins.getInstance().getCloud(entry.getKey());
+            if (!(cloud instanceof Cloud)) {
+                // nothing to check the droplets against, let the launcher sort it out
+                computersToConnect.addAll(entry.getValue());
+                continue;
+            }
+
+            Map<Integer, Droplet> dropletsById = new HashMap<Integer, Droplet>();
+            try {
+                for (Droplet droplet : ((Cloud) cloud).getDroplets()) {
+                    dropletsById.put(droplet.getId(), droplet);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to list droplets of cloud " + cloud.name + ", connecting to its slaves one by one", e);
+                computersToConnect.addAll(entry.getValue());
+                continue;
+            }
+
+            for (Computer computer : entry.getValue()) {
+                Slave slave = computer.getNode();
+                if (slave == null) {
+                    continue;
+                }
+
+                Droplet droplet = dropletsById.get(slave.getDropletId());
+                if (droplet == null || !(droplet.isActive() || droplet.isNew())) {
+                    LOGGER.info("Droplet " + slave.getDropletId() + " of slave " + slave.getNodeName() + " is gone, removing the slave");
+                    try {
+                        Jenkins.getInstance().removeNode(slave);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, e.getMessage(), e);
+                    }
+                    continue;
+                }
+
+                computer.setCachedDroplet(droplet);
+                computersToConnect.add(computer);
+            }
+        }
+
+        connect(computersToConnect);
+
+        LOGGER.info("Reconciled DigitalOcean slaves in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private static void connect(List<Computer> computers) {
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_CONNECTS,
+                new NamingThreadFactory(new DaemonThreadFactory(), "DigitalOcean reconnect"));
+
+        for (final Computer computer : computers) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        computer.connect(false).get();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to reconnect to slave " + computer.getName(), e);
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+    }
+}
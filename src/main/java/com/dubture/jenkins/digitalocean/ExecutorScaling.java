@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+/**
+ * Sizes the executors of slaves whose templates derive them from the droplet: the initial count from the droplet's
+ * virtual CPUs, and adjustments while the slave runs from its load average and memory pressure.
+ *
+ * <p>Executors are added one at a time, only while all of them are busy and the droplet has room to spare, and are
+ * removed one at a time while the droplet is overloaded. Between the two thresholds the count is left alone, so that
+ * it doesn't flap from one sample to the next.
+ */
+final class ExecutorScaling {
+
+    /**
+     * The load average per CPU above which the droplet is considered overloaded.
+     */
+    static final double MAX_LOAD_PER_CPU = 1.5;
+
+    /**
+     * The load average per CPU below which the droplet has room for another build.
+     */
+    static final double SPARE_LOAD_PER_CPU = 0.7;
+
+    /**
+     * The share of memory in use above which the droplet is considered overloaded.
+     */
+    static final double MAX_MEMORY = 0.9;
+
+    /**
+     * The share of memory in use below which the droplet has room for another build.
+     */
+    static final double SPARE_MEMORY = 0.7;
+
+    private ExecutorScaling() {
+    }
+
+    /**
+     * Computes the initial number of executors of a slave.
+     * @param cpuCount the droplet's virtual CPUs
+     * @param executorsPerCpu how many executors to start with per CPU
+     * @param maxExecutors the most executors the slave may have
+     * @return the number of executors, at least 1
+     */
+    static int getInitialExecutors(int cpuCount, double executorsPerCpu, int maxExecutors) {
+        return clamp((int) Math.round(Math.max(1, cpuCount) * executorsPerCpu), maxExecutors);
+    }
+
+    /**
+     * Computes the number of executors a slave should have given its current load.
+     * @param executors the current number of executors
+     * @param busyExecutors how many of them are running builds
+     * @param loadPerCpu the one minute load average divided by the number of CPUs
+     * @param memory the share of memory in use
+     * @param maxExecutors the most executors the slave may have
+     * @return the new number of executors, at least 1
+     */
+    static int getTargetExecutors(int executors, int busyExecutors, double loadPerCpu, double memory, int maxExecutors) {
+        if (loadPerCpu > MAX_LOAD_PER_CPU || memory > MAX_MEMORY) {
+            return clamp(executors - 1, maxExecutors);
+        }
+        if (busyExecutors >= executors && loadPerCpu < SPARE_LOAD_PER_CPU && memory < SPARE_MEMORY) {
+            return clamp(executors + 1, maxExecutors);
+        }
+        return clamp(executors, maxExecutors);
+    }
+
+    private static int clamp(int executors, int maxExecutors) {
+        return Math.max(1, Math.min(Math.max(1, maxExecutors), executors));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when idle slaves are terminated from their times alone, so that the {@link RetentionStrategy} and the
+ * {@link ProvisioningSimulator} follow the same rules.
+ *
+ * <p>A positive idle termination time is the number of minutes a slave may stay idle. A negative one terminates idle
+ * slaves just before they are charged for another hour: DigitalOcean charges for the next hour at 1:30, 2:30, 3:30,
+ * etc. of up time, so they are terminated from 1:25 to 1:30, from 2:25 to 2:30 and so on. Zero never terminates them.
+ */
+final class IdleTermination {
+
+    private static final long BILLING_WINDOW_OFFSET_MILLIS = TimeUnit.MINUTES.toMillis(25);
+
+    private static final long BILLING_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * {@link #isIdleForTooLong} rounds the up time down to whole minutes, so deadlines are a bit late rather than early.
+     */
+    private static final long CLOCK_SLACK_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private IdleTermination() {
+    }
+
+    /**
+     * @param now the current time
+     * @param startMillis when the slave was started
+     * @param idleStartMillis since when the slave has been idle
+     * @param idleTerminationTime the idle termination time of the slave
+     * @return whether an idle slave is to be terminated now
+     */
+    static boolean isIdleForTooLong(long now, long startMillis, long idleStartMillis, int idleTerminationTime) {
+        if (idleTerminationTime == 0) {
+            return false;
+        }
+
+        if (idleTerminationTime > 0) {
+            return now - idleStartMillis > TimeUnit.MINUTES.toMillis(idleTerminationTime);
+        }
+
+        long uptimeMinutes = TimeUnit.MILLISECONDS.toMinutes(now - startMillis);
+        if (uptimeMinutes < 60) {
+            return false;
+        }
+        uptimeMinutes %= 60;
+        return uptimeMinutes >= 25 && uptimeMinutes < 30;
+    }
+
+    /**
+     * @param now the current time
+     * @param startMillis when the slave was started
+     * @param idleStartMillis since when the slave has been idle, or the current time if it's busy
+     * @param idleTerminationTime the idle termination time of the slave
+     * @return the first time at which the slave is to be terminated if it stays idle until then, or -1 if it's never
+     * terminated for being idle
+     */
+    static long getTerminationMillis(long now, long startMillis, long idleStartMillis, int idleTerminationTime) {
+        if (idleTerminationTime == 0) {
+            return -1;
+        }
+
+        if (idleTerminationTime > 0) {
+            // isIdleForTooLong() wants strictly more than the idle termination time
+            return idleStartMillis + TimeUnit.MINUTES.toMillis(idleTerminationTime) + 1;
+        }
+
+        // the start of the next billing window
+        long uptime = now - startMillis;
+        if (uptime < HOUR_MILLIS + BILLING_WINDOW_OFFSET_MILLIS) {
+            return startMillis + HOUR_MILLIS + BILLING_WINDOW_OFFSET_MILLIS + CLOCK_SLACK_MILLIS;
+        }
+        long windowStart = startMillis + BILLING_WINDOW_OFFSET_MILLIS
+                + (uptime - BILLING_WINDOW_OFFSET_MILLIS) / HOUR_MILLIS * HOUR_MILLIS;
+        return now < windowStart + BILLING_WINDOW_MILLIS ? now : windowStart + HOUR_MILLIS + CLOCK_SLACK_MILLIS;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import hudson.Util;
+import jenkins.model.Jenkins;
+import jenkins.slaves.JnlpSlaveAgentProtocol;
+
+/**
+ * Generates the user data that turns a booting droplet into an inbound slave: cloud-init installs Java if needed,
+ * runs the template's init script, downloads slave.jar from Jenkins and keeps the agent connected over JNLP,
+ * authenticated with the node's secret.
+ *
+ * <p>User data configured on the template is kept. cloud-init runs both when they are combined into a multipart
+ * message.
+ */
+final class InboundBootstrap {
+
+    private static final String BOUNDARY = "==DigitalOceanJenkinsSlave==";
+
+    private static final String AGENT_JAR = "/usr/local/lib/jenkins-slave.jar";
+
+    private InboundBootstrap() {
+    }
+
+    /**
+     * Builds the user data for a droplet of the given template.
+     * @param template the template the droplet is created from
+     * @param nodeName the name of the droplet and its node
+     * @param jvmOpts the options for the JVM running the slave agent
+     * @return the user data
+     * @throws IllegalStateException if the Jenkins URL is not configured, as the droplet couldn't reach Jenkins
+     */
+    static String getUserData(SlaveTemplate template, String nodeName, String jvmOpts) {
+        String script = getScript(template, nodeName, jvmOpts);
+        String userData = Util.fixEmptyAndTrim(template.getUserData());
+
+        if (userData == null) {
+            return script;
+        }
+
+        return "Content-Type: multipart/mixed; boundary=\"" + BOUNDARY + "\"\n"
+                + "MIME-Version: 1.0\n"
+                + "\n"
+                + "--" + BOUNDARY + "\n"
+                + "Content-Type: " + getContentType(userData) + "; charset=\"utf-8\"\n"
+                + "\n"
+                + userData + "\n"
+                + "--" + BOUNDARY + "\n"
+                + "Content-Type: text/x-shellscript; charset=\"utf-8\"\n"
+                + "\n"
+                + script
+                + "--" + BOUNDARY + "--\n";
+    }
+
+    static String getScript(SlaveTemplate template, String nodeName, String jvmOpts) {
+        String rootUrl = Jenkins.getInstance().getRootUrl();
+        if (rootUrl == null) {
+            throw new IllegalStateException("The Jenkins URL must be configured for slaves to connect back to Jenkins");
+        }
+
+        String user = Util.fixEmptyAndTrim(template.getUsername()) == null ? "root" : template.getUsername().trim();
+        String remoteFS = template.getWorkspacePath();
+        String jnlpUrl = rootUrl + "computer/" + Util.rawEncode(nodeName) + "/slave-agent.jnlp";
+        String secret = JnlpSlaveAgentProtocol.SLAVE_SECRET.mac(nodeName);
+
+        StringBuilder script = new StringBuilder();
+        script.append("#!/bin/sh\n");
+        script.append("# connects this droplet to Jenkins as the slave ").append(nodeName).append('\n');
+
+        script.append("if ! command -v java >/dev/null 2>&1; then\n");
+        script.append("  if command -v apt-get >/dev/null 2>&1; then\n");
+        script.append("    apt-get update -q && apt-get install -q -y default-jre-headless\n");
+        script.append("  elif command -v yum >/dev/null 2>&1; then\n");
+        script.append("    yum install -q -y java-1.8.0-openjdk-headless\n");
+        script.append("  fi\n");
+        script.append("fi\n");
+
+        script.append("mkdir -p '").append(remoteFS).append("' && chown ").append(user).append(" '").append(remoteFS).append("'\n");
+        script.append("curl -fsS --retry 10 -o ").append(AGENT_JAR).append(" '").append(rootUrl).append("jnlpJars/slave.jar' || exit 1\n");
+
+        String initScript = Util.fixEmptyAndTrim(template.getInitScript());
+        if (initScript != null) {
+            script.append("cat > /tmp/init.sh <<'JENKINS_INIT_SCRIPT'\n");
+            script.append(initScript).append('\n');
+            script.append("JENKINS_INIT_SCRIPT\n");
+            script.append("chmod 0755 /tmp/init.sh\n");
+            script.append(runAs(user, "/tmp/init.sh")).append(" || exit 1\n");
+        }
+
+        // reconnect whenever the channel goes away, e.g. when Jenkins restarts
+        script.append("cat > /usr/local/bin/jenkins-slave <<'JENKINS_SLAVE_SCRIPT'\n");
+        script.append("#!/bin/sh\n");
+        script.append("cd '").append(remoteFS).append("'\n");
+        script.append("while true; do\n");
+        script.append("  java ").append(Util.fixNull(jvmOpts)).append(" -jar ").append(AGENT_JAR)
+                .append(" -jnlpUrl '").append(jnlpUrl).append("' -secret ").append(secret)
+                .append(' ').append(Util.fixNull(template.getRemotingOpts())).append('\n');
+        script.append("  sleep 10\n");
+        script.append("done\n");
+        script.append("JENKINS_SLAVE_SCRIPT\n");
+        script.append("chmod 0755 /usr/local/bin/jenkins-slave\n");
+        script.append("nohup ").append(runAs(user, "/usr/local/bin/jenkins-slave"))
+                .append(" > /var/log/jenkins-slave.log 2>&1 &\n");
+
+        return script.toString();
+    }
+
+    private static String runAs(String user, String command) {
+        return "root".equals(user) ? command : "su - " + user + " -c " + command;
+    }
+
+    private static String getContentType(String userData) {
+        if (userData.startsWith("#cloud-config")) {
+            return "text/cloud-config";
+        } else if (userData.startsWith("#!")) {
+            return "text/x-shellscript";
+        } else if (userData.startsWith("#include")) {
+            return "text/x-include-url";
+        } else if (userData.startsWith("#cloud-boothook")) {
+            return "text/cloud-boothook";
+        }
+        return "text/plain";
+    }
+}
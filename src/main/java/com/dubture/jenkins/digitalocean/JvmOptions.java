@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.pojo.Size;
+
+/**
+ * Derives JVM options for the slave agent from the size of its droplet.
+ *
+ * <p>The agent JVM only runs the remoting channel and the build steps that run in-process, while most of the heavy
+ * lifting (compilers, test JVMs, containers) happens in forked processes. The heap therefore gets a modest share of
+ * the memory and the rest is left to the build.
+ */
+final class JvmOptions {
+
+    private JvmOptions() {
+    }
+
+    /**
+     * Computes the maximum heap size for a droplet with the given amount of memory: half of the memory on small
+     * droplets, tapering off to 256 MB plus an eighth of the memory on larger ones.
+     * @param memoryInMb the droplet's memory
+     * @return the maximum heap size in megabytes
+     */
+    static int getMaxHeapInMb(int memoryInMb) {
+        return Math.max(64, Math.min(memoryInMb / 2, 256 + memoryInMb / 8));
+    }
+
+    /**
+     * Builds the JVM options for an agent running on a droplet of the given size.
+     * @param size the droplet size
+     * @return the options, separated by spaces
+     */
+    static String forSize(Size size) {
+        int memoryInMb = size.getMemorySizeInMb();
+        int cpuCount = size.getVirutalCpuCount() == null ? 1 : size.getVirutalCpuCount();
+        int maxHeapInMb = getMaxHeapInMb(memoryInMb);
+
+        StringBuilder options = new StringBuilder();
+
+        // lets Java 7 images start with the Java 8 metaspace option below
+        options.append("-XX:+IgnoreUnrecognizedVMOptions");
+        options.append(" -Xmx").append(maxHeapInMb).append('m');
+        options.append(" -XX:MaxMetaspaceSize=").append(memoryInMb < 2048 ? 128 : 256).append('m');
+
+        // the concurrent collector only pays off with spare cores and a heap large enough to split into regions
+        if (cpuCount >= 2 && maxHeapInMb >= 1024) {
+            options.append(" -XX:+UseG1GC");
+        } else {
+            options.append(" -XX:+UseSerialGC");
+        }
+
+        return options.toString();
+    }
+}
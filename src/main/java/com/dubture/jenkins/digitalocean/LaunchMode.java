@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+/**
+ * How Jenkins establishes the channel to a {@link Slave}.
+ *
+ * <ul>
+ *   <li>{@link #SSH} - Jenkins waits for SSH, copies the agent over and runs it in an SSH session, the default</li>
+ *   <li>{@link #INBOUND} - the droplet downloads the agent while booting and connects back to Jenkins as a JNLP
+ *   slave, so Jenkins neither polls for SSH nor encrypts the channel itself</li>
+ * </ul>
+ */
+public enum LaunchMode {
+    SSH("Connect over SSH"),
+    INBOUND("Let the droplet connect to Jenkins (JNLP)");
+
+    private final String displayName;
+
+    LaunchMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Parses a value submitted from the configuration form, falling back to {@link #SSH} for unknown or
+     * missing values, e.g. when loading a configuration saved by an older version of the plugin.
+     */
+    public static LaunchMode fromString(String value) {
+        if (value == null) {
+            return SSH;
+        }
+
+        try {
+            return valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return SSH;
+        }
+    }
+}
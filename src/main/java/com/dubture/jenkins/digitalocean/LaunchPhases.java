@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The recent launch history of one template: how long its launches spent in each {@link DropletLaunch.State}, and
+ * which of its recent launches were hedged with a second droplet.
+ *
+ * <p>Only kept in memory, after a restart launches are not hedged until enough of them have been observed again.
+ */
+final class LaunchPhases {
+
+    /**
+     * The number of durations kept per phase.
+     */
+    private static final int DURATION_WINDOW = 50;
+
+    /**
+     * The minimum number of durations of a phase before its percentiles are trusted.
+     */
+    static final int MIN_SAMPLES = 10;
+
+    /**
+     * The number of launches and hedges the hedging budget applies to.
+     */
+    private static final int BUDGET_WINDOW = 100;
+
+    private static final Map<String, LaunchPhases> byTemplate = new HashMap<String, LaunchPhases>();
+
+    private final Map<DropletLaunch.State, Durations> durations =
+            new EnumMap<DropletLaunch.State, Durations>(DropletLaunch.State.class);
+
+    /**
+     * The most recent launches and hedges in the order they were started, true for hedges.
+     */
+    private final boolean[] starts = new boolean[BUDGET_WINDOW];
+
+    private int startCount;
+
+    private static final class Durations {
+        final long[] millis = new long[DURATION_WINDOW];
+        int count;
+    }
+
+    static LaunchPhases get(String cloudName, String templateName) {
+        synchronized (byTemplate) {
+            String key = cloudName + "/" + templateName;
+            LaunchPhases phases = byTemplate.get(key);
+            if (phases == null) {
+                phases = new LaunchPhases();
+                byTemplate.put(key, phases);
+            }
+            return phases;
+        }
+    }
+
+    /**
+     * Records how long a launch spent in the given state before moving on to the next one.
+     */
+    synchronized void record(DropletLaunch.State phase, long millis) {
+        Durations phaseDurations = durations.get(phase);
+        if (phaseDurations == null) {
+            phaseDurations = new Durations();
+            durations.put(phase, phaseDurations);
+        }
+        phaseDurations.millis[phaseDurations.count % DURATION_WINDOW] = millis;
+        phaseDurations.count++;
+    }
+
+    /**
+     * @return the 90th percentile of the recent durations of the given phase, or -1 if there are fewer than
+     * {@link #MIN_SAMPLES} of them
+     */
+    synchronized long getP90(DropletLaunch.State phase) {
+        Durations phaseDurations = durations.get(phase);
+        if (phaseDurations == null || phaseDurations.count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(phaseDurations.millis, Math.min(phaseDurations.count, DURATION_WINDOW));
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * 0.9) - 1];
+    }
+
+    /**
+     * Records that a launch has been started.
+     */
+    synchronized void onLaunch() {
+        addStart(false);
+    }
+
+    /**
+     * Records a hedge, if it fits the budget: including it, hedges may make up at most the given percentage of the
+     * launches among the recent starts.
+     * @return whether the hedge may be started
+     */
+    synchronized boolean tryHedge(int budgetPercent) {
+        int window = Math.min(startCount, BUDGET_WINDOW);
+        int launches = 0;
+        int hedges = 1;
+        for (int i = 0; i < window; i++) {
+            if (starts[i]) {
+                hedges++;
+            } else {
+                launches++;
+            }
+        }
+        if (hedges * 100 > launches * budgetPercent) {
+            return false;
+        }
+        addStart(true);
+        return true;
+    }
+
+    private void addStart(boolean hedge) {
+        starts[startCount % BUDGET_WINDOW] = hedge;
+        startCount++;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.pojo.Droplet;
+import com.myjeeva.digitalocean.pojo.Network;
+import com.myjeeva.digitalocean.pojo.Networks;
+
+import java.util.List;
+
+/**
+ * The network over which Jenkins connects to a slave.
+ *
+ * <p>If the droplet has no address on the preferred network, the other networks are tried in the order given by
+ * {@link #getFallbackOrder()}.
+ */
+public enum NetworkType {
+    PUBLIC("Public IPv4"),
+    PRIVATE("Private IPv4 (VPC)"),
+    IPV6("Public IPv6");
+
+    private final String displayName;
+
+    NetworkType(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    private NetworkType[] getFallbackOrder() {
+        switch (this) {
+            case PRIVATE:
+                return new NetworkType[] {PRIVATE, PUBLIC, IPV6};
+            case IPV6:
+                return new NetworkType[] {IPV6, PUBLIC, PRIVATE};
+            default:
+                return new NetworkType[] {PUBLIC, IPV6, PRIVATE};
+        }
+    }
+
+    /**
+     * Picks the address to connect to the droplet on, preferring this network.
+     * @return the IP address, or null if the droplet has none yet
+     */
+    public String getIpAddress(Droplet droplet) {
+        Networks networks = droplet.getNetworks();
+        if (networks == null) {
+            return null;
+        }
+
+        for (NetworkType type : getFallbackOrder()) {
+            String ipAddress = type.findIpAddress(networks);
+            if (ipAddress != null) {
+                return ipAddress;
+            }
+        }
+
+        return null;
+    }
+
+    private String findIpAddress(Networks networks) {
+        List<Network> candidates = this == IPV6 ? networks.getVersion6Networks() : networks.getVersion4Networks();
+        if (candidates == null) {
+            return null;
+        }
+
+        String wantedType = this == PRIVATE ? "private" : "public";
+        for (Network network : candidates) {
+            String ipAddress = network.getIpAddress();
+            if (ipAddress != null && !ipAddress.isEmpty() && !"0.0.0.0".equals(ipAddress)
+                    && wantedType.equalsIgnoreCase(network.getType())) {
+                return ipAddress;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses a value submitted from the configuration form, falling back to {@link #PUBLIC} for unknown or
+     * missing values, e.g. when loading a configuration saved by an older version of the plugin.
+     */
+    public static NetworkType fromString(String value) {
+        if (value == null) {
+            return PUBLIC;
+        }
+
+        try {
+            return valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return PUBLIC;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the slaves of each cloud and template, so that the instance cap checks don't need to scan all
+ * Jenkins nodes every time.
+ *
+ * <p>Slaves are added when a droplet is created or when their {@link Computer} is created, e.g. after a restart, and
+ * removed when their {@link Computer} is removed. As the counters are sets of node names, counting the same slave
+ * twice is harmless. A periodic full recount corrects any drift, e.g. from nodes removed while Jenkins was down.
+ */
+final class NodeCounter {
+
+    private static final Logger LOGGER = Logger.getLogger(NodeCounter.class.getName());
+
+    private static final ConcurrentMap<String, Set<String>> nodesByCloud = new ConcurrentHashMap<String, Set<String>>();
+
+    private static final ConcurrentMap<String, Set<String>> nodesByTemplate = new ConcurrentHashMap<String, Set<String>>();
+
+    private NodeCounter() {
+        throw new AssertionError();
+    }
+
+    static void add(String nodeName) {
+        String cloudName = DropletName.getCloudName(nodeName);
+        if (cloudName == null) {
+            return;
+        }
+        nodes(nodesByCloud, cloudName).add(nodeName);
+        nodes(nodesByTemplate, templateKey(cloudName, DropletName.getSlaveName(nodeName))).add(nodeName);
+    }
+
+    static void remove(String nodeName) {
+        String cloudName = DropletName.getCloudName(nodeName);
+        if (cloudName == null) {
+            return;
+        }
+        nodes(nodesByCloud, cloudName).remove(nodeName);
+        nodes(nodesByTemplate, templateKey(cloudName, DropletName.getSlaveName(nodeName))).remove(nodeName);
+    }
+
+    static int countCloudNodes(String cloudName) {
+        Set<String> nodes = nodesByCloud.get(cloudName);
+        return nodes == null ? 0 : nodes.size();
+    }
+
+    static int countTemplateNodes(String cloudName, String templateName) {
+        Set<String> nodes = nodesByTemplate.get(templateKey(cloudName, templateName));
+        return nodes == null ? 0 : nodes.size();
+    }
+
+    /**
+     * Recounts the slaves from the Jenkins node list.
+     */
+    static void recount() {
+        ConcurrentMap<String, Set<String>> cloudCounts = new ConcurrentHashMap<String, Set<String>>();
+        ConcurrentMap<String, Set<String>> templateCounts = new ConcurrentHashMap<String, Set<String>>();
+
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            String nodeName = node.getDisplayName();
+            String cloudName = DropletName.getCloudName(nodeName);
+            if (cloudName == null) {
+                continue;
+            }
+            nodes(cloudCounts, cloudName).add(nodeName);
+            nodes(templateCounts, templateKey(cloudName, DropletName.getSlaveName(nodeName))).add(nodeName);
+        }
+
+        replace(nodesByCloud, cloudCounts);
+        replace(nodesByTemplate, templateCounts);
+    }
+
+    /**
+     * Replaces the sets in place, keeping the slaves that are still being launched, as they might not have been
+     * added to Jenkins yet.
+     */
+    private static void replace(ConcurrentMap<String, Set<String>> counts, ConcurrentMap<String, Set<String>> recounted) {
+        for (String key : counts.keySet()) {
+            if (!recounted.containsKey(key)) {
+                recounted.put(key, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : recounted.entrySet()) {
+            Set<String> current = nodes(counts, entry.getKey());
+            for (String nodeName : current) {
+                if (!entry.getValue().contains(nodeName) && !DropletLaunch.isLaunching(nodeName)) {
+                    LOGGER.log(Level.FINE, "Node {0} is gone, correcting the node count", nodeName);
+                    current.remove(nodeName);
+                }
+            }
+            current.addAll(entry.getValue());
+        }
+    }
+
+    private static Set<String> nodes(ConcurrentMap<String, Set<String>> counts, String key) {
+        Set<String> nodes = counts.get(key);
+        if (nodes == null) {
+            counts.putIfAbsent(key, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            nodes = counts.get(key);
+        }
+        return nodes;
+    }
+
+    private static String templateKey(String cloudName, String templateName) {
+        return cloudName + "/" + templateName;
+    }
+
+    @Extension
+    public static class Recount extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return 10 * MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            recount();
+        }
+    }
+}
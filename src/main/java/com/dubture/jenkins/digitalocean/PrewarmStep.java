@@ -0,0 +1,182 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.google.common.base.Strings;
+import com.google.inject.Inject;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeProvisioner;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The {@code digitalOceanPrewarm} pipeline step, which provisions slaves for a label right away, e.g. ahead of a
+ * parallel stage, so that their boot overlaps with the stages before it. See {@link Cloud#prewarm(Label, int)}.
+ *
+ * <p>Only available when the pipeline plugins are installed.
+ */
+public class PrewarmStep extends AbstractStepImpl {
+
+    private final String label;
+
+    private final int count;
+
+    private String cloud;
+
+    private boolean wait;
+
+    @DataBoundConstructor
+    public PrewarmStep(String label, int count) {
+        this.label = label;
+        this.count = count;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public String getCloud() {
+        return cloud;
+    }
+
+    /**
+     * @param cloud the name of the cloud to provision the slaves in, empty for the first cloud with a template for
+     *              the label
+     */
+    @DataBoundSetter
+    public void setCloud(String cloud) {
+        this.cloud = Strings.emptyToNull(cloud);
+    }
+
+    public boolean isWait() {
+        return wait;
+    }
+
+    /**
+     * @param wait whether the step waits for the slaves to come online
+     */
+    @DataBoundSetter
+    public void setWait(boolean wait) {
+        this.wait = wait;
+    }
+
+    /**
+     * @return the cloud to provision the slaves in, or null if there is none
+     */
+    Cloud findCloud(Label label) {
+        for (hudson.slaves.Cloud c : Jenkins.getInstance().clouds) {
+            if (!(c instanceof Cloud) || (cloud != null && !cloud.equals(c.name))) {
+                continue;
+            }
+            if (!((Cloud) c).getTemplates(label).isEmpty()) {
+                return (Cloud) c;
+            }
+        }
+        return null;
+    }
+
+    public static class Execution extends AbstractSynchronousNonBlockingStepExecution<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        private transient PrewarmStep step;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        /**
+         * @return the number of slaves launched, or, when waiting, the number of them that came online
+         */
+        @Override
+        protected Integer run() throws Exception {
+            Label label = Jenkins.getInstance().getLabel(step.getLabel());
+            Cloud cloud = step.findCloud(label);
+            if (cloud == null) {
+                listener.getLogger().println("No DigitalOcean cloud has a template for label " + step.getLabel());
+                return 0;
+            }
+
+            List<NodeProvisioner.PlannedNode> nodes = step.getCount() > 0
+                    ? cloud.prewarm(label, step.getCount())
+                    : Collections.<NodeProvisioner.PlannedNode>emptyList();
+            listener.getLogger().println("Launching " + nodes.size() + " slaves for label " + step.getLabel()
+                    + " in DigitalOcean cloud " + cloud.name);
+            if (!step.isWait()) {
+                return nodes.size();
+            }
+
+            int online = 0;
+            long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(cloud.getTimeoutMinutes());
+            for (NodeProvisioner.PlannedNode node : nodes) {
+                try {
+                    node.future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    online++;
+                } catch (ExecutionException e) {
+                    listener.getLogger().println("Failed to launch " + node.displayName + ": " + e.getCause());
+                } catch (TimeoutException e) {
+                    listener.getLogger().println("Timed out waiting for " + node.displayName + " to come online");
+                }
+            }
+            listener.getLogger().println(online + " of " + nodes.size() + " slaves are online");
+            return online;
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "digitalOceanPrewarm";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Pre-warm DigitalOcean slaves";
+        }
+    }
+}
@@ -0,0 +1,678 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a trace recorded by the {@link TraceRecorder} against provisioning policies on a virtual clock, so that
+ * instance caps, idle termination times and template orders can be compared on real demand before changing them.
+ *
+ * <p>Usage: {@code java -cp <plugin classes> com.dubture.jenkins.digitalocean.ProvisioningSimulator
+ * digitalocean-trace.log policy.properties...}. Each policy is a properties file:
+ * <pre>
+ * name=two-sizes                         defaults to the file name
+ * instanceCap=20                         of the cloud, 0 for no cap
+ * provisionIntervalSeconds=10            how often provisioning looks at the queue
+ * launchSeconds=60                       launch time to use if the trace has none for a template
+ * templates=small large                  in the order they are tried
+ * template.small.labels=linux test
+ * template.small.instanceCap=10
+ * template.small.idleTerminationInMinutes=10
+ * template.small.numExecutors=2
+ * </pre>
+ *
+ * <p>This is a separate model of provisioning, not a replay against {@link Cloud}, {@link SlaveTemplate} and
+ * {@link RetentionStrategy} themselves, as those need a running Jenkins. Only the idle termination rules are shared
+ * with the plugin, see {@link IdleTermination}. Template selection and label matching are re-implemented: builds are
+ * provisioned for by the first template with a matching label that is below its instance cap, the way
+ * {@link Cloud#provision} chose templates when this was written. Changes to how the plugin provisions aren't picked
+ * up by the simulator and have to be made here as well. Quarantines, account droplet limits, hedging, recycling and
+ * single-use slaves aren't modelled. Only label expressions made of atoms, {@code &&} and {@code ||} are understood; a
+ * trace with parentheses or any other operator is rejected rather than replayed wrongly. Launch times are drawn from
+ * the launches of the same template recorded in the trace, or of any template if there are none.
+ *
+ * <p>For each policy it reports the percentiles of the time builds waited in the queue, the droplet hours used and
+ * billed, and the number of times a droplet was launched shortly after another one of the same template had been
+ * terminated for being idle, i.e. how much the policy thrashes. The waits actually recorded are reported as well.
+ */
+public final class ProvisioningSimulator {
+
+    /**
+     * A launch this soon after a termination of the same template counts as thrashing.
+     */
+    static final long THRASH_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final long SEED = 42;
+
+    private ProvisioningSimulator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ProvisioningSimulator <trace file> <policy file>...");
+            System.exit(2);
+        }
+
+        Trace trace;
+        Reader reader = new FileReader(args[0]);
+        try {
+            trace = Trace.read(reader);
+        } finally {
+            reader.close();
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        results.add(trace.getRecordedResult());
+        for (int i = 1; i < args.length; i++) {
+            results.add(simulate(trace, Policy.load(new File(args[i])), SEED));
+        }
+        print(results, System.out);
+    }
+
+    static void print(List<Result> results, PrintStream out) {
+        out.println(String.format("%-20s %8s %9s %9s %9s %9s %9s %10s %10s %7s", "policy", "builds", "wait p50",
+                "wait p90", "wait p99", "wait max", "droplets", "hours", "billed", "thrash"));
+        for (Result result : results) {
+            out.println(result);
+        }
+    }
+
+    /**
+     * Replays the trace against the policy.
+     * @param seed seeds the drawing of launch times, so that runs can be repeated
+     */
+    static Result simulate(Trace trace, Policy policy, long seed) {
+        return new Simulation(trace, policy, new Random(seed)).run();
+    }
+
+    static final class Job {
+
+        final long id;
+
+        final String label;
+
+        final long queuedMillis;
+
+        long durationMillis = -1;
+
+        long recordedStartMillis = -1;
+
+        Job(long id, String label, long queuedMillis) {
+            this.id = id;
+            this.label = label;
+            this.queuedMillis = queuedMillis;
+        }
+    }
+
+    /**
+     * The builds and launches of a recorded trace.
+     */
+    static final class Trace {
+
+        final List<Job> jobs;
+
+        final Map<String, List<Long>> launchMillis;
+
+        Trace(List<Job> jobs, Map<String, List<Long>> launchMillis) {
+            this.jobs = jobs;
+            this.launchMillis = launchMillis;
+        }
+
+        /**
+         * Reads a trace, skipping builds that were cancelled. Builds whose completion isn't in the trace are assumed
+         * to take as long as the median build.
+         */
+        static Trace read(Reader reader) throws IOException {
+            Map<Long, Job> jobs = new LinkedHashMap<Long, Job>();
+            Map<String, List<Long>> launchMillis = new HashMap<String, List<Long>>();
+
+            BufferedReader lines = new BufferedReader(reader);
+            for (String line; (line = lines.readLine()) != null; ) {
+                String[] fields = line.split("\t");
+                if (fields.length < 3) {
+                    continue;
+                }
+                try {
+                    long time = Long.parseLong(fields[1]);
+                    String type = fields[0];
+                    if (type.equals("A") && fields.length >= 4) {
+                        long id = Long.parseLong(fields[2]);
+                        jobs.put(id, new Job(id, fields[3].equals("-") ? null : fields[3], time));
+                    } else if (type.equals("C")) {
+                        jobs.remove(Long.parseLong(fields[2]));
+                    } else if (type.equals("S")) {
+                        Job job = jobs.get(Long.parseLong(fields[2]));
+                        if (job != null) {
+                            job.recordedStartMillis = time;
+                        }
+                    } else if (type.equals("E") && fields.length >= 4) {
+                        Job job = jobs.get(Long.parseLong(fields[2]));
+                        if (job != null) {
+                            job.durationMillis = Long.parseLong(fields[3]);
+                        }
+                    } else if (type.equals("B") && fields.length >= 5) {
+                        List<Long> millis = launchMillis.get(fields[3]);
+                        if (millis == null) {
+                            millis = new ArrayList<Long>();
+                            launchMillis.put(fields[3], millis);
+                        }
+                        millis.add(Long.parseLong(fields[4]));
+                    }
+                } catch (NumberFormatException e) {
+                    // a line cut short, e.g. by a crash while writing it
+                }
+            }
+
+            List<Long> durations = new ArrayList<Long>();
+            for (Job job : jobs.values()) {
+                if (job.durationMillis >= 0) {
+                    durations.add(job.durationMillis);
+                }
+            }
+            long medianDuration = percentile(durations, 50);
+            for (Job job : jobs.values()) {
+                if (job.durationMillis < 0) {
+                    job.durationMillis = medianDuration;
+                }
+            }
+
+            return new Trace(new ArrayList<Job>(jobs.values()), launchMillis);
+        }
+
+        /**
+         * @return the queue waits that were actually recorded
+         */
+        Result getRecordedResult() {
+            Result result = new Result("recorded");
+            for (Job job : jobs) {
+                if (job.recordedStartMillis >= 0) {
+                    result.waits.add(job.recordedStartMillis - job.queuedMillis);
+                }
+            }
+            result.droplets = -1;
+            return result;
+        }
+    }
+
+    static final class TemplatePolicy {
+
+        final String name;
+
+        final Set<String> labels;
+
+        final int instanceCap;
+
+        final int idleTerminationTime;
+
+        final int numExecutors;
+
+        TemplatePolicy(String name, String labels, int instanceCap, int idleTerminationTime, int numExecutors) {
+            this.name = name;
+            this.labels = new LinkedHashSet<String>(Arrays.asList(labels.trim().split("\\s+")));
+            this.instanceCap = instanceCap;
+            this.idleTerminationTime = idleTerminationTime;
+            this.numExecutors = Math.max(1, numExecutors);
+        }
+
+        /**
+         * Matches simple label expressions; builds without a label run anywhere, as the slaves' mode is normal.
+         * @throws IllegalArgumentException if the expression uses parentheses or an operator other than {@code &&}
+         * and {@code ||}
+         */
+        boolean matches(String label) {
+            if (label == null) {
+                return true;
+            }
+            if (label.contains("!") || label.contains("->") || label.contains("(") || label.contains(")")) {
+                throw new IllegalArgumentException("Label expression " + label + " isn't supported by the simulator, "
+                        + "only atoms, && and || are");
+            }
+            for (String alternative : label.split("\\|\\|")) {
+                boolean all = true;
+                for (String atom : alternative.split("&&")) {
+                    all &= labels.contains(atom.trim());
+                }
+                if (all) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class Policy {
+
+        final String name;
+
+        final int instanceCap;
+
+        final long provisionIntervalMillis;
+
+        final long launchMillis;
+
+        final List<TemplatePolicy> templates;
+
+        Policy(String name, int instanceCap, long provisionIntervalMillis, long launchMillis,
+               List<TemplatePolicy> templates) {
+            this.name = name;
+            this.instanceCap = instanceCap;
+            this.provisionIntervalMillis = Math.max(1, provisionIntervalMillis);
+            this.launchMillis = launchMillis;
+            this.templates = templates;
+        }
+
+        static Policy load(File file) throws IOException {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            List<TemplatePolicy> templates = new ArrayList<TemplatePolicy>();
+            for (String template : properties.getProperty("templates", "").trim().split("\\s+")) {
+                if (template.isEmpty()) {
+                    continue;
+                }
+                String prefix = "template." + template + ".";
+                templates.add(new TemplatePolicy(template,
+                        properties.getProperty(prefix + "labels", ""),
+                        getInt(properties, prefix + "instanceCap", 0),
+                        getInt(properties, prefix + "idleTerminationInMinutes", 10),
+                        getInt(properties, prefix + "numExecutors", 1)));
+            }
+
+            return new Policy(properties.getProperty("name", file.getName()),
+                    getInt(properties, "instanceCap", 0),
+                    TimeUnit.SECONDS.toMillis(getInt(properties, "provisionIntervalSeconds", 10)),
+                    TimeUnit.SECONDS.toMillis(getInt(properties, "launchSeconds", 60)),
+                    templates);
+        }
+
+        private static int getInt(Properties properties, String key, int defaultValue) {
+            String value = properties.getProperty(key);
+            return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+        }
+    }
+
+    static final class Result {
+
+        final String policy;
+
+        final List<Long> waits = new ArrayList<Long>();
+
+        int unscheduled;
+
+        int droplets;
+
+        long dropletMillis;
+
+        long billedHours;
+
+        int thrash;
+
+        Result(String policy) {
+            this.policy = policy;
+        }
+
+        long getWaitPercentile(int percentile) {
+            return percentile(waits, percentile);
+        }
+
+        double getDropletHours() {
+            return dropletMillis / (double) TimeUnit.HOURS.toMillis(1);
+        }
+
+        @Override
+        public String toString() {
+            String builds = waits.size() + (unscheduled > 0 ? "+" + unscheduled : "");
+            if (droplets < 0) {
+                return String.format("%-20s %8s %8ds %8ds %8ds %8ds", policy, builds, getWaitPercentile(50) / 1000,
+                        getWaitPercentile(90) / 1000, getWaitPercentile(99) / 1000, getWaitPercentile(100) / 1000);
+            }
+            return String.format("%-20s %8s %8ds %8ds %8ds %8ds %9d %10.1f %10d %7d", policy, builds,
+                    getWaitPercentile(50) / 1000, getWaitPercentile(90) / 1000, getWaitPercentile(99) / 1000,
+                    getWaitPercentile(100) / 1000, droplets, getDropletHours(), billedHours, thrash);
+        }
+    }
+
+    /**
+     * A simulated slave.
+     */
+    private static final class Droplet {
+
+        final TemplatePolicy template;
+
+        final long startMillis;
+
+        boolean online;
+
+        boolean terminated;
+
+        int busy;
+
+        long idleStartMillis;
+
+        Droplet(TemplatePolicy template, long startMillis) {
+            this.template = template;
+            this.startMillis = startMillis;
+        }
+
+        boolean hasFreeExecutor() {
+            return online && !terminated && busy < template.numExecutors;
+        }
+    }
+
+    private static final class Event implements Comparable<Event> {
+
+        enum Type { ARRIVAL, ONLINE, COMPLETED, IDLE_CHECK, PROVISION }
+
+        final long time;
+
+        final long sequence;
+
+        final Type type;
+
+        final Job job;
+
+        final Droplet droplet;
+
+        Event(long time, long sequence, Type type, Job job, Droplet droplet) {
+            this.time = time;
+            this.sequence = sequence;
+            this.type = type;
+            this.job = job;
+            this.droplet = droplet;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            return time != o.time ? (time < o.time ? -1 : 1) : (sequence < o.sequence ? -1 : sequence > o.sequence ? 1 : 0);
+        }
+    }
+
+    private static final class Simulation {
+
+        private final Trace trace;
+
+        private final Policy policy;
+
+        private final Random random;
+
+        private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+
+        private final List<Job> queue = new ArrayList<Job>();
+
+        private final List<Droplet> droplets = new ArrayList<Droplet>();
+
+        private final Map<String, Deque<Long>> terminations = new HashMap<String, Deque<Long>>();
+
+        private final Result result;
+
+        private long sequence;
+
+        private long now;
+
+        Simulation(Trace trace, Policy policy, Random random) {
+            this.trace = trace;
+            this.policy = policy;
+            this.random = random;
+            this.result = new Result(policy.name);
+        }
+
+        Result run() {
+            if (trace.jobs.isEmpty()) {
+                return result;
+            }
+
+            for (Job job : trace.jobs) {
+                schedule(job.queuedMillis, Event.Type.ARRIVAL, job, null);
+            }
+            schedule(trace.jobs.get(0).queuedMillis, Event.Type.PROVISION, null, null);
+
+            while (!events.isEmpty()) {
+                Event event = events.poll();
+                now = event.time;
+                switch (event.type) {
+                    case ARRIVAL:
+                        queue.add(event.job);
+                        assign();
+                        break;
+                    case ONLINE:
+                        event.droplet.online = true;
+                        becameIdle(event.droplet);
+                        assign();
+                        break;
+                    case COMPLETED:
+                        event.droplet.busy--;
+                        if (event.droplet.busy == 0) {
+                            becameIdle(event.droplet);
+                        }
+                        assign();
+                        break;
+                    case IDLE_CHECK:
+                        checkIdle(event.droplet);
+                        break;
+                    case PROVISION:
+                        provision();
+                        // keep ticking while anything else is going to happen
+                        if (!events.isEmpty()) {
+                            schedule(now + policy.provisionIntervalMillis, Event.Type.PROVISION, null, null);
+                        }
+                        break;
+                }
+            }
+
+            // slaves that are never terminated for being idle are left running at the end
+            for (Droplet droplet : droplets) {
+                if (!droplet.terminated) {
+                    terminate(droplet);
+                }
+            }
+            result.unscheduled = queue.size();
+            return result;
+        }
+
+        private void schedule(long time, Event.Type type, Job job, Droplet droplet) {
+            events.add(new Event(time, sequence++, type, job, droplet));
+        }
+
+        private void assign() {
+            for (Iterator<Job> it = queue.iterator(); it.hasNext(); ) {
+                Job job = it.next();
+                for (Droplet droplet : droplets) {
+                    if (droplet.hasFreeExecutor() && droplet.template.matches(job.label)) {
+                        droplet.busy++;
+                        result.waits.add(now - job.queuedMillis);
+                        schedule(now + job.durationMillis, Event.Type.COMPLETED, job, droplet);
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void becameIdle(Droplet droplet) {
+            droplet.idleStartMillis = now;
+            scheduleIdleCheck(droplet);
+        }
+
+        private void scheduleIdleCheck(Droplet droplet) {
+            long deadline = IdleTermination.getTerminationMillis(now, droplet.startMillis, droplet.idleStartMillis,
+                    droplet.template.idleTerminationTime);
+            if (deadline >= 0) {
+                schedule(Math.max(deadline, now + 1), Event.Type.IDLE_CHECK, null, droplet);
+            }
+        }
+
+        private void checkIdle(Droplet droplet) {
+            if (droplet.terminated || droplet.busy > 0) {
+                return;
+            }
+            if (IdleTermination.isIdleForTooLong(now, droplet.startMillis, droplet.idleStartMillis,
+                    droplet.template.idleTerminationTime)) {
+                terminate(droplet);
+                getTerminations(droplet.template).add(now);
+            } else if (droplet.template.idleTerminationTime < 0) {
+                // billing mode checks again at the next window, later idle checks are scheduled as builds complete
+                scheduleIdleCheck(droplet);
+            }
+        }
+
+        private void terminate(Droplet droplet) {
+            droplet.terminated = true;
+            long millis = now - droplet.startMillis;
+            result.dropletMillis += millis;
+            result.billedHours += Math.max(1, (millis + TimeUnit.HOURS.toMillis(1) - 1) / TimeUnit.HOURS.toMillis(1));
+        }
+
+        /**
+         * Launches droplets for the queued builds that neither a free executor nor a launching droplet can take,
+         * label by label, like the {@link hudson.slaves.NodeProvisioner} does on each of its ticks.
+         */
+        private void provision() {
+            Map<String, Integer> demand = new LinkedHashMap<String, Integer>();
+            for (Job job : queue) {
+                Integer count = demand.get(job.label);
+                demand.put(job.label, count == null ? 1 : count + 1);
+            }
+
+            for (Map.Entry<String, Integer> entry : demand.entrySet()) {
+                String label = entry.getKey();
+                int excess = entry.getValue();
+                for (Droplet droplet : droplets) {
+                    if (!droplet.terminated && droplet.template.matches(label)) {
+                        excess -= droplet.online ? droplet.template.numExecutors - droplet.busy : droplet.template.numExecutors;
+                    }
+                }
+
+                while (excess > 0) {
+                    TemplatePolicy template = getTemplateBelowInstanceCap(label);
+                    if (template == null) {
+                        break;
+                    }
+                    launch(template);
+                    excess -= template.numExecutors;
+                }
+            }
+        }
+
+        private TemplatePolicy getTemplateBelowInstanceCap(String label) {
+            if (policy.instanceCap > 0 && countLive(null) >= policy.instanceCap) {
+                return null;
+            }
+            for (TemplatePolicy template : policy.templates) {
+                if (template.matches(label) && (template.instanceCap == 0 || countLive(template) < template.instanceCap)) {
+                    return template;
+                }
+            }
+            return null;
+        }
+
+        private int countLive(TemplatePolicy template) {
+            int count = 0;
+            for (Droplet droplet : droplets) {
+                if (!droplet.terminated && (template == null || droplet.template == template)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void launch(TemplatePolicy template) {
+            Deque<Long> recentTerminations = getTerminations(template);
+            while (!recentTerminations.isEmpty() && now - recentTerminations.peekFirst() > THRASH_WINDOW_MILLIS) {
+                recentTerminations.removeFirst();
+            }
+            if (!recentTerminations.isEmpty()) {
+                recentTerminations.removeFirst();
+                result.thrash++;
+            }
+
+            Droplet droplet = new Droplet(template, now);
+            droplets.add(droplet);
+            result.droplets++;
+            schedule(now + drawLaunchMillis(template), Event.Type.ONLINE, null, droplet);
+        }
+
+        private long drawLaunchMillis(TemplatePolicy template) {
+            List<Long> launches = trace.launchMillis.get(template.name);
+            if (launches == null || launches.isEmpty()) {
+                launches = new ArrayList<Long>();
+                for (List<Long> millis : trace.launchMillis.values()) {
+                    launches.addAll(millis);
+                }
+            }
+            return launches.isEmpty() ? policy.launchMillis : launches.get(random.nextInt(launches.size()));
+        }
+
+        private Deque<Long> getTerminations(TemplatePolicy template) {
+            Deque<Long> times = terminations.get(template.name);
+            if (times == null) {
+                times = new ArrayDeque<Long>();
+                terminations.put(template.name, times);
+            }
+            return times;
+        }
+    }
+
+    /**
+     * @return the nearest-rank percentile of the values, 0 if there are none
+     */
+    static long percentile(List<Long> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<Long>(values);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+/**
+ * What to do with a {@link Slave} that would otherwise be terminated while the build queue still has work it
+ * could take.
+ *
+ * <ul>
+ *   <li>{@link #NONE} - always destroy the droplet, the default behavior</li>
+ *   <li>{@link #WORKSPACE} - wipe the workspace directory and keep the node online</li>
+ *   <li>{@link #REBUILD} - reimage the droplet in place with DigitalOcean's rebuild action and reconnect to it,
+ *   which keeps its IP address and SSH keys</li>
+ * </ul>
+ */
+public enum RecycleMode {
+    NONE("Destroy the droplet"),
+    WORKSPACE("Reset the workspace"),
+    REBUILD("Rebuild the droplet from its image");
+
+    private final String displayName;
+
+    RecycleMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Parses a value submitted from the configuration form, falling back to {@link #NONE} for unknown or
+     * missing values, e.g. when loading a configuration saved by an older version of the plugin.
+     */
+    public static RecycleMode fromString(String value) {
+        if (value == null) {
+            return NONE;
+        }
+
+        try {
+            return valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return NONE;
+        }
+    }
+}
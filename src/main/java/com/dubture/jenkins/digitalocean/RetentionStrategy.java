@@ -26,19 +26,40 @@
 package com.dubture.jenkins.digitalocean;
 
 import com.myjeeva.digitalocean.pojo.Droplet;
+import hudson.Extension;
 import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
 import hudson.slaves.CloudSlaveRetentionStrategy;
-import hudson.util.TimeUnit2;
+import hudson.slaves.ComputerListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
  * The {@link RetentionStrategy} is mainly used to determine
  * when an idle {@link Droplet} can be destroyed.
  *
+ * <p>Rather than relying on Jenkins checking every computer periodically, a timer is scheduled for the moment a
+ * computer will have been idle for too long whenever it comes online or finishes a build, and cancelled when it
+ * accepts a build. The periodic check still runs, but rarely, to catch computers whose state changed some other way.
+ *
+ * <p>Slaves of single-use templates stop taking builds as soon as they take one and are terminated as soon as that
+ * build is done, regardless of the idle termination time.
+ *
  * @author robert.gruendler@dubture.com
  */
 public class RetentionStrategy extends CloudSlaveRetentionStrategy<Computer> {
 
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "DigitalOcean idle termination"));
+
     public static class DescriptorImpl extends Descriptor<hudson.slaves.RetentionStrategy<?>> {
         @Override
         public String getDisplayName() {
@@ -47,40 +68,134 @@ public class RetentionStrategy extends CloudSlaveRetentionStrategy<Computer> {
     }
 
     public void start(Computer computer) {
+        if (DropletLaunch.isLaunching(computer.getName()) || DropletReconciler.deferConnect(computer)) {
+            return;
+        }
         computer.connect(false);
     }
 
     @Override
     protected long checkCycle() {
-        return 1; // ask Jenkins to check every 1 minute, though it might decide to check in 2 or 3 (or longer?)
+        // the termination timers take care of idle computers on time, this only catches whatever they missed
+        return 10;
+    }
+
+    /**
+     * Schedules terminating the computer for when it will have been idle for too long, if it stays idle until then.
+     * When the timer fires, the computer is checked like Jenkins would check it periodically and, if it isn't
+     * terminated, rescheduled while it's still idle.
+     */
+    void scheduleTermination(final Computer computer) {
+        long terminationMillis = getTerminationMillis(computer);
+        if (terminationMillis < 0) {
+            computer.setTerminationTimer(null);
+            return;
+        }
+
+        long delay = Math.max(0, terminationMillis - System.currentTimeMillis());
+        computer.setTerminationTimer(timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Queue.withLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (computer.getNode() == null) {
+                            return;
+                        }
+                        check(computer);
+                        if (computer.getNode() != null && computer.isIdle() && computer.isOnline()
+                                && !computer.isRecycling() && !computer.isSavingCache()) {
+                            scheduleTermination(computer);
+                        }
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @return when the computer is to be terminated if it stays idle, or -1 if it's never terminated for being idle
+     * @see IdleTermination
+     */
+    private static long getTerminationMillis(Computer computer) {
+        Slave slave = computer.getNode();
+        if (slave == null) {
+            return -1;
+        }
+
+        if (computer.isUsedUp()) {
+            // terminated as soon as its build completes, not for being idle
+            return -1;
+        }
+
+        long now = System.currentTimeMillis();
+        long idleStart = computer.isIdle() ? computer.getRetentionIdleStartMilliseconds() : now;
+        return IdleTermination.getTerminationMillis(now, computer.getStartTimeMillis(), idleStart,
+                slave.getIdleTerminationTime());
+    }
+
+    /**
+     * Gives the slave a chance to be recycled for a queued build, or to save its dependency caches, before it gets
+     * terminated.
+     */
+    @Override
+    protected void kill(Node node) throws IOException {
+        hudson.model.Computer computer = node.toComputer();
+        if (computer instanceof Computer && (((Computer) computer).tryRecycle() || ((Computer) computer).trySaveCache())) {
+            return;
+        }
+        super.kill(node);
+    }
+
+    /**
+     * Terminates used up single-use slaves whose termination was missed when their build completed. Jenkins only
+     * checks slaves that accept tasks, which used up slaves don't.
+     */
+    @Override
+    public long check(Computer computer) {
+        if (computer.isUsedUp()) {
+            if (computer.isIdle()) {
+                computer.terminateIfUsedUp();
+            }
+            return checkCycle();
+        }
+        return super.check(computer);
     }
 
     @Override
     protected boolean isIdleForTooLong(Computer computer) {
+        if (computer.isRecycling() || computer.isSavingCache()) {
+            return false;
+        }
+
         int idleTerminationTime = computer.getNode().getIdleTerminationTime();
 
-        if (idleTerminationTime == 0) {
+        // in billing mode, the idle start is ignored, so make sure the computer is idle at all
+        if (idleTerminationTime < 0 && !computer.isIdle()) {
             return false;
         }
 
-        if (idleTerminationTime > 0) {
-            return System.currentTimeMillis() - computer.getIdleStartMilliseconds() > TimeUnit2.MINUTES.toMillis(idleTerminationTime);
-        } else if (idleTerminationTime < 0 && computer.isIdle()) {
-            // DigitalOcaen charges for the next hour at 1:30, 2:30, 3:30, etc. up time, so kill the node
-            // if it idles and is about to get charged for next hour
-            long uptimeMinutes = TimeUnit2.MILLISECONDS.toMinutes(System.currentTimeMillis() - computer.getStartTimeMillis());
+        return IdleTermination.isIdleForTooLong(System.currentTimeMillis(), computer.getStartTimeMillis(),
+                computer.getRetentionIdleStartMilliseconds(), idleTerminationTime);
+    }
 
-            if (uptimeMinutes < 60) {
-                return false;
+    /**
+     * Starts the termination timer of computers as they come online, and stops it as they go offline.
+     */
+    @Extension
+    public static class Listener extends ComputerListener {
+        @Override
+        public void onOnline(hudson.model.Computer c, TaskListener listener) {
+            if (c instanceof Computer) {
+                ((Computer) c).scheduleTermination();
             }
+        }
 
-            while (uptimeMinutes >= 60) {
-                uptimeMinutes -= 60;
+        @Override
+        public void onOffline(hudson.model.Computer c) {
+            if (c instanceof Computer) {
+                ((Computer) c).setTerminationTimer(null);
             }
-
-            return uptimeMinutes >= 25 && uptimeMinutes < 30;
         }
-
-        return false;
     }
 }
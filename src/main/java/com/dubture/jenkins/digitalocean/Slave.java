@@ -71,13 +71,38 @@ public class Slave extends AbstractCloudSlave {
 
     private final int sshPort;
 
+    private final String imageId;
+
+    private final RecycleMode recycleMode;
+
+    private final NetworkType networkType;
+
+    private final String remotingOpts;
+
+    /**
+     * The name of the cloud's account the droplet was created in, null or empty for the cloud's own account.
+     */
+    private final String accountName;
+
+    /**
+     * The cache volume attached to the droplet, if any.
+     */
+    private volatile VolumePool.Lease volumeLease;
+
+    /**
+     * The number of executors as adjusted to the slave's load, 0 while it has the number it was created with.
+     */
+    private transient volatile int adjustedNumExecutors;
+
     /**
      * {@link Slave}s are created by {@link SlaveTemplate}s
      */
     public Slave(String cloudName, String name, String nodeDescription, Integer dropletId, String privateKey,
                  String remoteAdmin, String remoteFS, int sshPort, int numExecutors, int idleTerminationTime,
                  Mode mode, String labelString, ComputerLauncher launcher, RetentionStrategy retentionStrategy,
-                 List<? extends NodeProperty<?>> nodeProperties, String initScript, String jvmOpts)
+                 List<? extends NodeProperty<?>> nodeProperties, String initScript, String jvmOpts, String imageId,
+                 RecycleMode recycleMode, NetworkType networkType,
+                 String remotingOpts, String accountName)
             throws Descriptor.FormException, IOException {
 
         super(name, nodeDescription, remoteFS, numExecutors, mode, labelString, launcher, retentionStrategy, nodeProperties);
@@ -90,6 +115,11 @@ public class Slave extends AbstractCloudSlave {
         this.initScript = initScript;
         this.jvmOpts = jvmOpts;
         this.sshPort = sshPort;
+        this.imageId = imageId;
+        this.recycleMode = recycleMode;
+        this.networkType = networkType;
+        this.remotingOpts = remotingOpts;
+        this.accountName = accountName;
         startTimeMillis = System.currentTimeMillis();
     }
 
@@ -124,6 +154,33 @@ public class Slave extends AbstractCloudSlave {
         return (Cloud) Jenkins.getInstance().getCloud(cloudName);
     }
 
+    public String getCloudName() {
+        return cloudName;
+    }
+
+    public String getAccountName() {
+        return accountName;
+    }
+
+    /**
+     * Get the auth token of the account the droplet was created in
+     * @return the account's auth token, or the cloud's own one if the account has been removed from the cloud since
+     */
+    public String getAuthToken() {
+        Cloud cloud = getCloud();
+        Account account = cloud.getAccount(accountName);
+        return account == null ? cloud.getAuthToken() : account.getAuthToken();
+    }
+
+    /**
+     * Retrieve the template this slave was created from
+     * @return the template, or null if it has been removed from the cloud since
+     */
+    public SlaveTemplate getTemplate() {
+        Cloud cloud = getCloud();
+        return cloud == null ? null : cloud.getTemplate(DropletName.getSlaveName(getNodeName()));
+    }
+
     /**
      * Get the name of the remote admin user
      * @return the remote admin user, defaulting to "root"
@@ -134,6 +191,14 @@ public class Slave extends AbstractCloudSlave {
         return remoteAdmin;
     }
 
+    @Override
+    protected Object readResolve() {
+        if (volumeLease != null) {
+            VolumePool.register(dropletId, volumeLease);
+        }
+        return super.readResolve();
+    }
+
     /**
      * Deletes the {@link com.myjeeva.digitalocean.pojo.Droplet} when not needed anymore.
      *
@@ -143,13 +208,22 @@ public class Slave extends AbstractCloudSlave {
      */
     @Override
     protected void _terminate(TaskListener listener) throws IOException, InterruptedException {
-        DigitalOcean.tryDestroyDropletAsync(getCloud().getAuthToken(), dropletId);
+        DigitalOcean.tryDestroyDropletAsync(getAuthToken(), dropletId);
     }
 
     public long getStartTimeMillis() {
         return startTimeMillis;
     }
 
+    @Override
+    public int getNumExecutors() {
+        return adjustedNumExecutors > 0 ? adjustedNumExecutors : super.getNumExecutors();
+    }
+
+    void setAdjustedNumExecutors(int numExecutors) {
+        adjustedNumExecutors = numExecutors;
+    }
+
     public Integer getDropletId() {
         return dropletId;
     }
@@ -170,7 +244,39 @@ public class Slave extends AbstractCloudSlave {
         return jvmOpts;
     }
 
+    public String getRemotingOpts() {
+        return remotingOpts;
+    }
+
+    public VolumePool.Lease getVolumeLease() {
+        return volumeLease;
+    }
+
+    void setVolumeLease(VolumePool.Lease volumeLease) {
+        this.volumeLease = volumeLease;
+    }
+
     public int getSshPort() {
         return sshPort;
     }
+
+    public String getImageId() {
+        return imageId;
+    }
+
+    /**
+     * Get what to do with this slave when it would be terminated while there is still work queued for it
+     * @return the recycle mode, defaulting to {@link RecycleMode#NONE} for slaves created by older versions
+     */
+    public RecycleMode getRecycleMode() {
+        return recycleMode == null ? RecycleMode.NONE : recycleMode;
+    }
+
+    /**
+     * Get the network Jenkins connects to this slave over
+     * @return the network type, defaulting to {@link NetworkType#PUBLIC} for slaves created by older versions
+     */
+    public NetworkType getNetworkType() {
+        return networkType == null ? NetworkType.PUBLIC : networkType;
+    }
 }
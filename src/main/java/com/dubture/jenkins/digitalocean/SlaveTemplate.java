@@ -26,6 +26,7 @@
 package com.dubture.jenkins.digitalocean;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -37,7 +38,6 @@ import java.util.logging.Logger;
 import com.google.common.base.Strings;
 import com.myjeeva.digitalocean.exception.DigitalOceanException;
 import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
-import com.myjeeva.digitalocean.impl.DigitalOceanClient;
 import com.myjeeva.digitalocean.pojo.Droplet;
 import com.myjeeva.digitalocean.pojo.Image;
 import com.myjeeva.digitalocean.pojo.Key;
@@ -51,11 +51,14 @@ import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.labels.LabelAtom;
+import hudson.slaves.JNLPLauncher;
 import hudson.slaves.NodeProperty;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.Secret;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import static com.google.common.collect.Lists.newArrayList;
@@ -65,7 +68,7 @@ import static com.google.common.collect.Lists.newArrayList;
  *
  * <p>Holds things like Image ID, sizeId and region used for the specific droplet.
  *
- * <p>The {@link SlaveTemplate#provision(String, String, String, String, Integer)} method
+ * <p>The {@link SlaveTemplate#provision(String, Cloud, Account)} method
  * is the main entry point to create a new droplet via the DigitalOcean API when a new slave needs to be provisioned.
  *
  * @author robert.gruendler@dubture.com
@@ -73,6 +76,10 @@ import static com.google.common.collect.Lists.newArrayList;
 @SuppressWarnings("unused")
 public class SlaveTemplate implements Describable<SlaveTemplate> {
 
+    private static final String DEFAULT_VOLUME_MOUNT_PATH = "/cache";
+
+    private static final String DEFAULT_CACHE_REGION = "us-east-1";
+
     private final String name;
 
     private final String labelString;
@@ -120,12 +127,86 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
      */
     private final String initScript;
 
+    /**
+     * What to do with a slave that is about to be terminated while the queue still has work for it.
+     */
+    private RecycleMode recycleMode = RecycleMode.NONE;
+
+    /**
+     * The network Jenkins connects to the slave over.
+     */
+    private NetworkType networkType = NetworkType.PUBLIC;
+
+    /**
+     * How Jenkins connects to the slave.
+     */
+    private LaunchMode launchMode = LaunchMode.SSH;
+
+    /**
+     * Options passed to the JVM running the slave agent.
+     */
+    private String jvmOpts = "";
+
+    /**
+     * Options passed to the slave agent itself, after the jar.
+     */
+    private String remotingOpts = "";
+
+    /**
+     * Whether to derive the heap size, garbage collector and metaspace limit from the droplet size. Any options in
+     * {@link #jvmOpts} are applied after these and so take precedence.
+     */
+    private boolean autoJvmOpts;
+
+    /**
+     * Name prefix of the block storage volumes to attach to slaves as build caches, empty for none.
+     */
+    private String volumePool = "";
+
+    /**
+     * Where the volume is mounted on the slave.
+     */
+    private String volumeMountPath = DEFAULT_VOLUME_MOUNT_PATH;
+
+    /**
+     * URL of the S3-compatible bucket dependency caches are kept in, empty for none.
+     */
+    private String cacheBucketUrl = "";
+
+    private String cacheRegion = DEFAULT_CACHE_REGION;
+
+    private String cacheAccessKey = "";
+
+    private Secret cacheSecretKey;
+
+    /**
+     * Space separated paths, relative to the home directory, of the directories to cache.
+     */
+    private String cachePaths = "";
+
+    /**
+     * The percentage of launches that may be hedged with a second droplet, 0 to disable hedging.
+     */
+    private int hedgeBudget;
+
+    /**
+     * Whether each slave runs a single build and is terminated afterwards.
+     */
+    private boolean singleUse;
+
+    /**
+     * How many executors slaves start with per virtual CPU of their droplet, 0 to give them a fixed number of
+     * executors. When set, the number of executors is the most a slave may have.
+     */
+    private double executorsPerCpu;
+
     private transient Set<LabelAtom> labelSet;
 
     private static final Logger LOGGER = Logger.getLogger(SlaveTemplate.class.getName());
 
     /**
-     * Data is injected from the global Jenkins configuration via jelly.
+     * Data is injected from the global Jenkins configuration via jelly. The optional settings are injected through
+     * their setters.
      * @param imageId an image slug e.g. "debian-8-x64", or an integer e.g. of a backup, such as "12345678"
      * @param sizeId the image size e.g. "512mb" or "1gb"
      * @param regionId the region e.g. "nyc1"
@@ -163,89 +244,259 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         readResolve();
     }
 
-    public boolean isInstanceCapReached(String authToken, String cloudName) throws RequestUnsuccessfulException, DigitalOceanException {
+    /**
+     * @param recycleMode what to do with a slave that would be terminated while there is still work queued for it
+     */
+    @DataBoundSetter
+    public void setRecycleMode(String recycleMode) {
+        this.recycleMode = RecycleMode.fromString(recycleMode);
+    }
+
+    /**
+     * @param networkType the network to connect to the slave over
+     */
+    @DataBoundSetter
+    public void setNetworkType(String networkType) {
+        this.networkType = NetworkType.fromString(networkType);
+    }
+
+    /**
+     * @param jvmOpts options for the JVM running the slave agent
+     */
+    @DataBoundSetter
+    public void setJvmOpts(String jvmOpts) {
+        this.jvmOpts = Util.fixNull(jvmOpts);
+    }
+
+    /**
+     * @param remotingOpts options for the slave agent
+     */
+    @DataBoundSetter
+    public void setRemotingOpts(String remotingOpts) {
+        this.remotingOpts = Util.fixNull(remotingOpts);
+    }
+
+    /**
+     * @param autoJvmOpts whether to size the slave agent's JVM after the droplet
+     */
+    @DataBoundSetter
+    public void setAutoJvmOpts(boolean autoJvmOpts) {
+        this.autoJvmOpts = autoJvmOpts;
+    }
+
+    /**
+     * @param volumePool name prefix of the volumes to attach to slaves
+     */
+    @DataBoundSetter
+    public void setVolumePool(String volumePool) {
+        this.volumePool = Util.fixNull(volumePool).trim();
+    }
+
+    /**
+     * @param volumeMountPath where to mount the volume on the slave
+     */
+    @DataBoundSetter
+    public void setVolumeMountPath(String volumeMountPath) {
+        this.volumeMountPath = Strings.isNullOrEmpty(volumeMountPath) ? DEFAULT_VOLUME_MOUNT_PATH : volumeMountPath.trim();
+    }
+
+    /**
+     * @param cacheBucketUrl URL of the bucket to keep dependency caches in
+     */
+    @DataBoundSetter
+    public void setCacheBucketUrl(String cacheBucketUrl) {
+        this.cacheBucketUrl = Util.fixNull(cacheBucketUrl).trim();
+    }
+
+    /**
+     * @param cacheRegion region of the bucket
+     */
+    @DataBoundSetter
+    public void setCacheRegion(String cacheRegion) {
+        this.cacheRegion = Strings.isNullOrEmpty(cacheRegion) ? DEFAULT_CACHE_REGION : cacheRegion.trim();
+    }
+
+    /**
+     * @param cacheAccessKey access key for the bucket
+     */
+    @DataBoundSetter
+    public void setCacheAccessKey(String cacheAccessKey) {
+        this.cacheAccessKey = Util.fixNull(cacheAccessKey).trim();
+    }
+
+    /**
+     * @param cacheSecretKey secret key for the bucket
+     */
+    @DataBoundSetter
+    public void setCacheSecretKey(String cacheSecretKey) {
+        this.cacheSecretKey = Secret.fromString(cacheSecretKey);
+    }
+
+    /**
+     * @param cachePaths paths of the directories to cache, relative to the home directory
+     */
+    @DataBoundSetter
+    public void setCachePaths(String cachePaths) {
+        this.cachePaths = Util.fixNull(cachePaths).trim();
+    }
+
+    /**
+     * @param launchMode how Jenkins connects to the slave
+     */
+    @DataBoundSetter
+    public void setLaunchMode(String launchMode) {
+        this.launchMode = LaunchMode.fromString(launchMode);
+    }
+
+    /**
+     * @param hedgeBudget the percentage of launches that may be hedged with a second droplet, from 0 to 100
+     */
+    @DataBoundSetter
+    public void setHedgeBudget(String hedgeBudget) {
+        int percentage = tryParseInteger(hedgeBudget, 0);
+        if (percentage < 0 || percentage > 100) {
+            throw new IllegalArgumentException("The hedging budget must be a percentage from 0 to 100, not " + percentage);
+        }
+        this.hedgeBudget = percentage;
+    }
+
+    /**
+     * @param singleUse whether each slave runs a single build and is terminated afterwards
+     */
+    @DataBoundSetter
+    public void setSingleUse(boolean singleUse) {
+        this.singleUse = singleUse;
+    }
+
+    /**
+     * @param executorsPerCpu how many executors slaves start with per virtual CPU, empty or 0 for a fixed number
+     */
+    @DataBoundSetter
+    public void setExecutorsPerCpu(String executorsPerCpu) {
+        this.executorsPerCpu = Math.max(0, tryParseDouble(executorsPerCpu, 0));
+    }
+
+    public boolean isInstanceCapReached(Cloud cloud) throws RequestUnsuccessfulException, DigitalOceanException {
         if (instanceCap == 0) {
             return false;
         }
-        LOGGER.log(Level.INFO, "slave limit check");
+        if (NodeCounter.countTemplateNodes(cloud.name, name) >= instanceCap) {
+            return true;
+        }
+        // the last known droplets while the API is failing, like the cloud's own capacity check
+        return isInstanceCapReached(cloud.name, cloud.listDroplets());
+    }
 
-        int count = 0;
-        List<Node> nodes = Jenkins.getInstance().getNodes();
-        for (Node n : nodes) {
-            if (DropletName.isDropletInstanceOfSlave(n.getDisplayName(), cloudName, name)) {
-                count++;
-            }
+    /**
+     * @param droplets the droplets of each account of the cloud
+     */
+    boolean isInstanceCapReached(String cloudName, Map<Account, List<Droplet>> droplets) {
+        if (instanceCap == 0) {
+            return false;
         }
+        LOGGER.log(Level.FINE, "slave limit check");
 
-        if (count >= instanceCap) {
+        if (NodeCounter.countTemplateNodes(cloudName, name) >= instanceCap) {
             return true;
         }
 
-        count = 0;
-        List<Droplet> availableDroplets = DigitalOcean.getDroplets(authToken);
-        for (Droplet droplet : availableDroplets) {
+        int count = 0;
+        for (List<Droplet> accountDroplets : droplets.values()) {
+            count += countDroplets(accountDroplets, cloudName, name);
+        }
+        return count >= instanceCap;
+    }
+
+    /**
+     * Counts the new or active droplets that were created from the given template of the given cloud.
+     */
+    static int countDroplets(List<Droplet> droplets, String cloudName, String templateName) {
+        int count = 0;
+        for (Droplet droplet : droplets) {
             if ((droplet.isActive() || droplet.isNew())) {
-                if (DropletName.isDropletInstanceOfSlave(droplet.getName(), cloudName, name)) {
+                if (DropletName.isDropletInstanceOfSlave(droplet.getName(), cloudName, templateName)) {
                     count++;
                 }
             }
         }
-
-        return count >= instanceCap;
+        return count;
     }
 
-    public Slave provision(String dropletName, String cloudName, String authToken, String privateKey, Integer sshKeyId)
-            throws IOException, RequestUnsuccessfulException, Descriptor.FormException {
+    /**
+     * Creates a droplet for a new slave in the given account. The caller checks the instance caps and reserves the
+     * slave's slot beforehand, see {@link Cloud#provisionSlave(SlaveTemplate, String)}.
+     * @param dropletName the name of the droplet and slave
+     * @param cloud the cloud the slave belongs to
+     * @param account the account to create the droplet in
+     * @return the new slave
+     */
+    public Slave provision(String dropletName, Cloud cloud, Account account)
+            throws IOException, RequestUnsuccessfulException, DigitalOceanException, Descriptor.FormException {
 
         LOGGER.log(Level.INFO, "Provisioning slave...");
+        LOGGER.log(Level.INFO, "Starting to provision digital ocean droplet using image: " + imageId + " region: " + regionId + ", sizeId: " + sizeId);
+
+        // look the size up before creating the droplet, so that a failure here doesn't leave it behind
+        String effectiveJvmOpts = getEffectiveJvmOpts(account.getAuthToken());
+        int effectiveNumExecutors = getEffectiveNumExecutors(account.getAuthToken());
+
+        // create a new droplet
+        Droplet droplet = new Droplet();
+        droplet.setName(dropletName);
+        droplet.setSize(sizeId);
+        droplet.setRegion(new Region(regionId));
+        droplet.setImage(DigitalOcean.newImage(imageId));
+        droplet.setKeys(newArrayList(new Key(account.getSshKeyId())));
+
+        // private networking puts the droplet into the default VPC of its region
+        if (getNetworkType() == NetworkType.PRIVATE) {
+            droplet.setEnablePrivateNetworking(true);
+        } else if (getNetworkType() == NetworkType.IPV6) {
+            droplet.setEnableIpv6(true);
+        }
 
-        try {
-            LOGGER.log(Level.INFO, "Starting to provision digital ocean droplet using image: " + imageId + " region: " + regionId + ", sizeId: " + sizeId);
-
-            if (isInstanceCapReached(authToken, cloudName)) {
-                throw new AssertionError();
-            }
+        if (getLaunchMode() == LaunchMode.INBOUND) {
+            droplet.setUserData(InboundBootstrap.getUserData(this, dropletName, effectiveJvmOpts));
+        } else if (!(userData == null || userData.trim().isEmpty())) {
+            droplet.setUserData(userData);
+        }
 
-            // create a new droplet
-            Droplet droplet = new Droplet();
-            droplet.setName(dropletName);
-            droplet.setSize(sizeId);
-            droplet.setRegion(new Region(regionId));
-            droplet.setImage(DigitalOcean.newImage(imageId));
-            droplet.setKeys(newArrayList(new Key(sshKeyId)));
+        LOGGER.log(Level.INFO, "Creating slave with new droplet " + dropletName + " in account " + account.getDisplayName());
 
-            if (!(userData == null || userData.trim().isEmpty())) {
-                droplet.setUserData(userData);
+        ApiClient apiClient = DigitalOcean.newClient(account.getAuthToken());
+        Droplet createdDroplet;
+        try {
+            createdDroplet = apiClient.createDroplet(droplet);
+        } catch (DigitalOceanException e) {
+            Integer status = e.getHttpStatus();
+            if (status != null && status == 422 && DigitalOcean.isDropletLimitError(e)) {
+                // the limit may have been lowered, or the cached one is stale
+                DigitalOcean.invalidateDropletLimit(account.getAuthToken());
             }
-
-            LOGGER.log(Level.INFO, "Creating slave with new droplet " + dropletName);
-
-            DigitalOceanClient apiClient = new DigitalOceanClient(authToken);
-            Droplet createdDroplet = apiClient.createDroplet(droplet);
-
-            return newSlave(cloudName, createdDroplet, privateKey);
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, e.getMessage(), e);
-            throw new AssertionError();
+            throw e;
         }
+
+        return newSlave(cloud.name, account, createdDroplet, effectiveJvmOpts, effectiveNumExecutors);
     }
 
     /**
      * Create a new {@link Slave} from the given {@link Droplet}
+     * @param account the account the droplet is created in
      * @param droplet the droplet being created
-     * @param privateKey the RSA private key being used
+     * @param jvmOpts the options for the JVM running the slave agent
+     * @param numExecutors the number of executors the slave starts with
      * @return the provisioned {@link Slave}
      * @throws IOException
      * @throws Descriptor.FormException
      */
-    private Slave newSlave(String cloudName, Droplet droplet, String privateKey) throws IOException, Descriptor.FormException {
+    private Slave newSlave(String cloudName, Account account, Droplet droplet, String jvmOpts, int numExecutors) throws IOException, Descriptor.FormException {
         LOGGER.log(Level.INFO, "Creating new slave...");
         return new Slave(
                 cloudName,
                 droplet.getName(),
                 "Computer running on DigitalOcean with name: " + droplet.getName(),
                 droplet.getId(),
-                privateKey,
+                account.getPrivateKey(),
                 username,
                 workspacePath,
                 sshPort,
@@ -253,14 +504,56 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
                 idleTerminationInMinutes,
                 Node.Mode.NORMAL,
                 labels,
-                new ComputerLauncher(),
+                getLaunchMode() == LaunchMode.INBOUND ? new JNLPLauncher() : new ComputerLauncher(),
                 new RetentionStrategy(),
                 Collections.<NodeProperty<?>>emptyList(),
                 Util.fixNull(initScript),
-                ""
+                jvmOpts,
+                imageId,
+                getRecycleMode(),
+                getNetworkType(),
+                Util.fixNull(remotingOpts).trim(),
+                account.getName()
         );
     }
 
+    /**
+     * Combines the automatically derived JVM options, if enabled, with the configured ones. If the droplet size
+     * can't be found, only the configured options are used.
+     */
+    private String getEffectiveJvmOpts(String authToken) throws RequestUnsuccessfulException, DigitalOceanException {
+        String configured = Util.fixNull(jvmOpts).trim();
+        if (!autoJvmOpts) {
+            return configured;
+        }
+
+        Size size = DigitalOcean.getSize(authToken, sizeId);
+        if (size == null) {
+            LOGGER.log(Level.WARNING, "Unknown droplet size " + sizeId + ", not sizing the JVM of the slave automatically");
+            return configured;
+        }
+
+        return (JvmOptions.forSize(size) + " " + configured).trim();
+    }
+
+    /**
+     * Derives the number of executors a slave starts with from its droplet's virtual CPUs, if enabled. If the droplet
+     * size can't be found, the configured number is used. The sizes are cached, so this rarely calls the API.
+     */
+    int getEffectiveNumExecutors(String authToken) throws RequestUnsuccessfulException, DigitalOceanException {
+        if (!isAutoExecutors()) {
+            return getNumExecutors();
+        }
+
+        Size size = DigitalOcean.getSize(authToken, sizeId);
+        if (size == null || size.getVirutalCpuCount() == null) {
+            LOGGER.log(Level.WARNING, "Unknown droplet size " + sizeId + ", not deriving the executors of the slave from it");
+            return numExecutors;
+        }
+
+        return ExecutorScaling.getInitialExecutors(size.getVirutalCpuCount(), executorsPerCpu, numExecutors);
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<SlaveTemplate> {
 
@@ -359,6 +652,34 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
             return doCheckNonNegativeNumber(instanceCap);
         }
 
+        public FormValidation doCheckHedgeBudget(@QueryParameter String hedgeBudget) {
+            FormValidation validation = doCheckNonNegativeNumber(hedgeBudget);
+            if (validation.kind == FormValidation.Kind.OK && Integer.parseInt(hedgeBudget) > 100) {
+                return FormValidation.error("Must be a percentage from 0 to 100");
+            }
+            return validation;
+        }
+
+        public FormValidation doCheckExecutorsPerCpu(@QueryParameter String executorsPerCpu) {
+            if (Strings.isNullOrEmpty(executorsPerCpu)) {
+                return FormValidation.ok();
+            }
+
+            double number;
+
+            try {
+                number = Double.parseDouble(executorsPerCpu);
+            } catch (Exception e) {
+                return FormValidation.error("Must be a number");
+            }
+
+            if (number < 0) {
+                return FormValidation.error("Must be a non-negative number");
+            }
+
+            return FormValidation.ok();
+        }
+
         public FormValidation doCheckSizeId(@RelativePath("..") @QueryParameter String authToken) {
             return Cloud.DescriptorImpl.doCheckAuthToken(authToken);
         }
@@ -412,6 +733,36 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
 
             return model;
         }
+
+        public ListBoxModel doFillLaunchModeItems() {
+            ListBoxModel model = new ListBoxModel();
+
+            for (LaunchMode mode : LaunchMode.values()) {
+                model.add(mode.getDisplayName(), mode.name());
+            }
+
+            return model;
+        }
+
+        public ListBoxModel doFillNetworkTypeItems() {
+            ListBoxModel model = new ListBoxModel();
+
+            for (NetworkType type : NetworkType.values()) {
+                model.add(type.getDisplayName(), type.name());
+            }
+
+            return model;
+        }
+
+        public ListBoxModel doFillRecycleModeItems() {
+            ListBoxModel model = new ListBoxModel();
+
+            for (RecycleMode mode : RecycleMode.values()) {
+                model.add(mode.getDisplayName(), mode.name());
+            }
+
+            return model;
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -455,8 +806,11 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return workspacePath;
     }
 
+    /**
+     * @return the number of executors of this template's slaves, always 1 for single-use slaves
+     */
     public int getNumExecutors() {
-        return numExecutors;
+        return singleUse ? 1 : numExecutors;
     }
 
     public int getIdleTerminationInMinutes() {
@@ -475,10 +829,93 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         return initScript;
     }
 
+    public String getJvmOpts() {
+        return Util.fixNull(jvmOpts);
+    }
+
+    public String getRemotingOpts() {
+        return Util.fixNull(remotingOpts);
+    }
+
+    public boolean isAutoJvmOpts() {
+        return autoJvmOpts;
+    }
+
+    public String getVolumePool() {
+        return Util.fixNull(volumePool);
+    }
+
+    public String getVolumeMountPath() {
+        return Strings.isNullOrEmpty(volumeMountPath) ? DEFAULT_VOLUME_MOUNT_PATH : volumeMountPath;
+    }
+
+    public String getCacheBucketUrl() {
+        return Util.fixNull(cacheBucketUrl);
+    }
+
+    public String getCacheRegion() {
+        return Strings.isNullOrEmpty(cacheRegion) ? DEFAULT_CACHE_REGION : cacheRegion;
+    }
+
+    public String getCacheAccessKey() {
+        return Util.fixNull(cacheAccessKey);
+    }
+
+    public Secret getCacheSecretKey() {
+        return cacheSecretKey;
+    }
+
+    public String getCachePaths() {
+        return Util.fixNull(cachePaths);
+    }
+
+    /**
+     * @return the bucket to keep the dependency caches of this template's slaves in, or null if caching is not
+     * configured
+     */
+    CacheBucket getCacheBucket() throws MalformedURLException {
+        if (Strings.isNullOrEmpty(cacheBucketUrl) || Strings.isNullOrEmpty(cachePaths)) {
+            return null;
+        }
+        return new CacheBucket(cacheBucketUrl, getCacheRegion(), getCacheAccessKey(), Secret.toString(cacheSecretKey));
+    }
+
     public int getSshPort() {
         return sshPort;
     }
 
+    public RecycleMode getRecycleMode() {
+        return recycleMode == null ? RecycleMode.NONE : recycleMode;
+    }
+
+    public NetworkType getNetworkType() {
+        return networkType == null ? NetworkType.PUBLIC : networkType;
+    }
+
+    public LaunchMode getLaunchMode() {
+        return launchMode == null ? LaunchMode.SSH : launchMode;
+    }
+
+    public int getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    public boolean isSingleUse() {
+        return singleUse;
+    }
+
+    public double getExecutorsPerCpu() {
+        return executorsPerCpu;
+    }
+
+    /**
+     * @return whether the executors of this template's slaves are derived from their droplets and adjusted to their
+     * load, with {@link #getNumExecutors()} as the most they may have
+     */
+    public boolean isAutoExecutors() {
+        return executorsPerCpu > 0 && !singleUse;
+    }
+
     private static int tryParseInteger(final String integerString, final int defaultValue) {
         try {
             return Integer.parseInt(integerString);
@@ -489,6 +926,19 @@ public class SlaveTemplate implements Describable<SlaveTemplate> {
         }
     }
 
+    private static double tryParseDouble(final String doubleString, final double defaultValue) {
+        if (Strings.isNullOrEmpty(doubleString)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(doubleString);
+        }
+        catch (NumberFormatException e) {
+            LOGGER.log(Level.INFO, "Invalid number {0}, defaulting to {1}", new Object[] {doubleString, defaultValue});
+            return defaultValue;
+        }
+    }
+
     protected Object readResolve() {
         labelSet = Label.parse(labels);
         return this;
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The launch failures of one template, by {@link LaunchFailure}. A template whose launches keep failing, e.g.
+ * because its image was deleted, its size isn't available in its region or its init script always fails, is
+ * quarantined for a while, so that the cloud picks other templates for its labels instead of creating droplets for
+ * it. Every further failure doubles the quarantine, up to an hour; a successful launch ends it.
+ *
+ * <p>Only kept in memory. Saving the configuration of a cloud lifts the quarantine of its templates, as it has
+ * likely been fixed.
+ */
+public final class TemplateQuarantine {
+
+    /**
+     * The number of consecutive failures after which a template is quarantined.
+     */
+    static final int FAILURE_THRESHOLD = 3;
+
+    static final long MIN_QUARANTINE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    static final long MAX_QUARANTINE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Map<String, TemplateQuarantine> byTemplate = new HashMap<String, TemplateQuarantine>();
+
+    private final String templateName;
+
+    private final Map<LaunchFailure, Integer> failures = new EnumMap<LaunchFailure, Integer>(LaunchFailure.class);
+
+    private int consecutiveFailures;
+
+    private LaunchFailure lastFailure;
+
+    private long quarantinedUntilMillis;
+
+    TemplateQuarantine(String templateName) {
+        this.templateName = templateName;
+    }
+
+    static TemplateQuarantine get(String cloudName, String templateName) {
+        synchronized (byTemplate) {
+            String key = cloudName + "/" + templateName;
+            TemplateQuarantine quarantine = byTemplate.get(key);
+            if (quarantine == null) {
+                quarantine = new TemplateQuarantine(templateName);
+                byTemplate.put(key, quarantine);
+            }
+            return quarantine;
+        }
+    }
+
+    /**
+     * @return the failures of the given template, or null if none were recorded
+     */
+    static TemplateQuarantine getIfPresent(String cloudName, String templateName) {
+        synchronized (byTemplate) {
+            return byTemplate.get(cloudName + "/" + templateName);
+        }
+    }
+
+    /**
+     * Forgets the failures of all templates of the given cloud.
+     */
+    static void reset(String cloudName) {
+        synchronized (byTemplate) {
+            Iterator<String> keys = byTemplate.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(cloudName + "/")) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a failed launch, quarantining the template once it has failed too often in a row.
+     * @return whether this failure quarantined the template
+     */
+    synchronized boolean recordFailure(LaunchFailure failure, long now) {
+        Integer count = failures.get(failure);
+        failures.put(failure, count == null ? 1 : count + 1);
+        lastFailure = failure;
+        consecutiveFailures++;
+
+        if (consecutiveFailures < FAILURE_THRESHOLD) {
+            return false;
+        }
+        quarantinedUntilMillis = now + getQuarantineMillis(consecutiveFailures);
+        return true;
+    }
+
+    /**
+     * Records a successful launch, which ends the quarantine.
+     */
+    synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        quarantinedUntilMillis = 0;
+    }
+
+    static long getQuarantineMillis(int consecutiveFailures) {
+        int doublings = Math.min(consecutiveFailures - FAILURE_THRESHOLD, 30);
+        return Math.min(MIN_QUARANTINE_MILLIS << doublings, MAX_QUARANTINE_MILLIS);
+    }
+
+    synchronized boolean isQuarantined(long now) {
+        return now < quarantinedUntilMillis;
+    }
+
+    public boolean isQuarantined() {
+        return isQuarantined(System.currentTimeMillis());
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized LaunchFailure getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return the number of failed launches per {@link LaunchFailure} since Jenkins was started
+     */
+    public synchronized Map<LaunchFailure, Integer> getFailures() {
+        return Collections.unmodifiableMap(new EnumMap<LaunchFailure, Integer>(failures));
+    }
+
+    /**
+     * @return the seconds until the template is tried again, 0 if it isn't quarantined
+     */
+    public synchronized long getRemainingSeconds() {
+        return Math.max(0, TimeUnit.MILLISECONDS.toSeconds(quarantinedUntilMillis - System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records when builds are queued, started and completed and how long slaves took to launch to a trace file, so that
+ * provisioning policies can be tried out against real demand with the {@link ProvisioningSimulator}.
+ *
+ * <p>Disabled unless the {@code com.dubture.jenkins.digitalocean.TraceRecorder.enabled} system property is set to
+ * true. The trace is written to {@code digitalocean-trace.log} in the Jenkins home directory, one tab separated event
+ * per line, starting with its type and the time it happened at:
+ * <pre>
+ * A time queueId label               a build was queued for the label, "-" for none
+ * S time queueId                     the build left the queue to start
+ * C time queueId                     the build was cancelled while queued
+ * E time queueId duration            the build completed after the given milliseconds
+ * B time cloud template duration phases  a slave of the template came online after the given milliseconds
+ * </pre>
+ * The phases of a launch are a comma separated list of {@code phase:milliseconds}. Once the file grows past
+ * 64 MB, it's moved to {@code digitalocean-trace.log.1} and a new one is started.
+ *
+ * <p>The events are written on a background thread, as most of them happen while holding the queue lock.
+ */
+@Extension
+public class TraceRecorder extends QueueListener {
+
+    private static final Logger LOGGER = Logger.getLogger(TraceRecorder.class.getName());
+
+    static final boolean ENABLED = Boolean.getBoolean(TraceRecorder.class.getName() + ".enabled");
+
+    static final String FILE_NAME = "digitalocean-trace.log";
+
+    private static final long MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+    private static final ExecutorService writerThread = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "DigitalOcean trace recorder"));
+
+    // only accessed on the writer thread
+    private static Writer writer;
+
+    private static long fileSize;
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        Label label = wi.getAssignedLabel();
+        record("A", wi.getId(), label == null ? "-" : label.getExpression());
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        record(li.isCancelled() ? "C" : "S", li.getId());
+    }
+
+    /**
+     * Records the duration of completed builds.
+     */
+    @Extension
+    public static class BuildListener extends RunListener<Run> {
+        @Override
+        public void onCompleted(Run run, TaskListener listener) {
+            record("E", run.getQueueId(), Math.max(0, System.currentTimeMillis() - run.getStartTimeInMillis()));
+        }
+    }
+
+    /**
+     * Records that a slave has come online.
+     * @param launchMillis how long the launch took
+     * @param phases the durations of the phases of the launch, as {@code phase:milliseconds,...}
+     */
+    static void recordLaunch(String cloudName, String templateName, long launchMillis, String phases) {
+        record("B", cloudName, templateName, launchMillis, phases);
+    }
+
+    private static void record(String type, Object... fields) {
+        if (!ENABLED) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(type).append('\t').append(System.currentTimeMillis());
+        for (Object field : fields) {
+            // labels and names never contain tabs or line breaks in practice, but make sure they don't break the format
+            sb.append('\t').append(String.valueOf(field).replaceAll("\\s", "_"));
+        }
+        final String line = sb.append('\n').toString();
+
+        writerThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                write(line);
+            }
+        });
+    }
+
+    private static void write(String line) {
+        try {
+            File file = new File(Jenkins.getInstance().getRootDir(), FILE_NAME);
+            if (writer == null || fileSize > MAX_FILE_SIZE) {
+                if (writer != null) {
+                    writer.close();
+                    File rotated = new File(file.getPath() + ".1");
+                    if ((rotated.exists() && !rotated.delete()) || !file.renameTo(rotated)) {
+                        LOGGER.warning("Failed to rotate " + file);
+                    }
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+                fileSize = file.length();
+            }
+            writer.write(line);
+            writer.flush();
+            fileSize += line.length();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write to the trace", e);
+            writer = null;
+        }
+    }
+}
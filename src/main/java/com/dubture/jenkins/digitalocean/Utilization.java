@@ -0,0 +1,330 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.pojo.Size;
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The resource usage of the slaves of one template, sampled by the {@link UtilizationSampler} and aggregated into
+ * hourly buckets covering the last week.
+ *
+ * <p>All templates are kept in a single file in the Jenkins home directory, one line per template and hour, so it
+ * stays small regardless of the number of slaves.
+ */
+final class Utilization {
+
+    private static final Logger LOGGER = Logger.getLogger(Utilization.class.getName());
+
+    private static final int RETAINED_HOURS = 7 * 24;
+
+    /**
+     * The minimum number of samples before a template gets a recommendation.
+     */
+    static final int MIN_SAMPLES = 60;
+
+    /**
+     * The average CPU usage a recommended size should run at, leaving headroom for bursts.
+     */
+    static final double TARGET_CPU = 0.6;
+
+    /**
+     * The peak memory usage a recommended size should run at.
+     */
+    static final double TARGET_MEMORY = 0.8;
+
+    private static final Map<String, Utilization> byTemplate = new TreeMap<String, Utilization>();
+
+    private static boolean loaded;
+
+    /**
+     * Hourly buckets by hours since the epoch.
+     */
+    private final SortedMap<Long, Bucket> hours = new TreeMap<Long, Bucket>();
+
+    static final class Bucket {
+        int samples;
+        double cpuSum;
+        double memorySum;
+        double memoryMax;
+        double diskMax;
+        double busySum;
+        int busyMax;
+    }
+
+    /**
+     * Records a sample of a slave.
+     * @param cloudName the slave's cloud
+     * @param templateName the slave's template
+     * @param cpu the share of CPU time used since the previous sample, between 0 and 1
+     * @param memory the share of memory in use, between 0 and 1
+     * @param disk the share of disk space in use on the slave's file system, between 0 and 1
+     * @param busyExecutors the number of executors running builds
+     * @param executors the number of executors
+     */
+    static void record(String cloudName, String templateName, double cpu, double memory, double disk,
+                       int busyExecutors, int executors) {
+        synchronized (byTemplate) {
+            load();
+            String key = cloudName + "/" + templateName;
+            Utilization utilization = byTemplate.get(key);
+            if (utilization == null) {
+                utilization = new Utilization();
+                byTemplate.put(key, utilization);
+            }
+            utilization.add(TimeUnit.MILLISECONDS.toHours(System.currentTimeMillis()), cpu, memory, disk,
+                    executors == 0 ? 0 : (double) busyExecutors / executors, busyExecutors);
+        }
+    }
+
+    /**
+     * @return the utilization of the template over the last week, or null if it has no samples
+     */
+    static Utilization get(String cloudName, String templateName) {
+        synchronized (byTemplate) {
+            load();
+            return byTemplate.get(cloudName + "/" + templateName);
+        }
+    }
+
+    void add(long hour, double cpu, double memory, double disk, double busy, int busyExecutors) {
+        synchronized (hours) {
+            Bucket bucket = hours.get(hour);
+            if (bucket == null) {
+                bucket = new Bucket();
+                hours.put(hour, bucket);
+            }
+            bucket.samples++;
+            bucket.cpuSum += cpu;
+            bucket.memorySum += memory;
+            bucket.memoryMax = Math.max(bucket.memoryMax, memory);
+            bucket.diskMax = Math.max(bucket.diskMax, disk);
+            bucket.busySum += busy;
+            bucket.busyMax = Math.max(bucket.busyMax, busyExecutors);
+
+            hours.headMap(hour - RETAINED_HOURS).clear();
+        }
+    }
+
+    private Bucket total() {
+        Bucket total = new Bucket();
+        synchronized (hours) {
+            for (Bucket bucket : hours.values()) {
+                total.samples += bucket.samples;
+                total.cpuSum += bucket.cpuSum;
+                total.memorySum += bucket.memorySum;
+                total.memoryMax = Math.max(total.memoryMax, bucket.memoryMax);
+                total.diskMax = Math.max(total.diskMax, bucket.diskMax);
+                total.busySum += bucket.busySum;
+                total.busyMax = Math.max(total.busyMax, bucket.busyMax);
+            }
+        }
+        return total;
+    }
+
+    int getSamples() {
+        return total().samples;
+    }
+
+    double getAverageCpu() {
+        Bucket total = total();
+        return total.samples == 0 ? 0 : total.cpuSum / total.samples;
+    }
+
+    double getAverageMemory() {
+        Bucket total = total();
+        return total.samples == 0 ? 0 : total.memorySum / total.samples;
+    }
+
+    double getPeakMemory() {
+        return total().memoryMax;
+    }
+
+    double getPeakDisk() {
+        return total().diskMax;
+    }
+
+    double getAverageBusy() {
+        Bucket total = total();
+        return total.samples == 0 ? 0 : total.busySum / total.samples;
+    }
+
+    int getPeakBusyExecutors() {
+        return total().busyMax;
+    }
+
+    /**
+     * Describes the template's utilization and, if a cheaper size would serve the same load, recommends it: the
+     * cheapest size in the template's region whose CPUs would run at no more than {@link #TARGET_CPU} on average and
+     * whose memory would be filled to no more than {@link #TARGET_MEMORY} at peak, with as many executors as were
+     * ever busy at once.
+     * @param templateName the template's name, for the description
+     * @param current the template's current size
+     * @param sizes all available sizes
+     * @param regionId the template's region
+     * @param numExecutors the template's number of executors
+     * @return the description, or null if there are too few samples
+     */
+    String recommend(String templateName, Size current, List<Size> sizes, String regionId, int numExecutors) {
+        Bucket total = total();
+        if (total.samples < MIN_SAMPLES) {
+            return null;
+        }
+
+        double averageCpu = total.cpuSum / total.samples;
+        int cpus = current.getVirutalCpuCount();
+        String summary = String.format("%s averages %d%% CPU on %d vCPU, %d%% memory at peak of %d MB and %d of %d executors busy at peak",
+                templateName, Math.round(averageCpu * 100), cpus, Math.round(total.memoryMax * 100),
+                current.getMemorySizeInMb(), total.busyMax, numExecutors);
+
+        double neededCpus = averageCpu * cpus / TARGET_CPU;
+        double neededMemory = total.memoryMax * current.getMemorySizeInMb() / TARGET_MEMORY;
+        int neededExecutors = Math.max(1, Math.min(numExecutors, total.busyMax));
+
+        Size best = null;
+        for (Size size : sizes) {
+            if (size.getVirutalCpuCount() < neededCpus || size.getMemorySizeInMb() < neededMemory) {
+                continue;
+            }
+            if (size.getRegions() != null && !size.getRegions().contains(regionId)) {
+                continue;
+            }
+            if (best == null || size.getPriceHourly().compareTo(best.getPriceHourly()) < 0) {
+                best = size;
+            }
+        }
+
+        BigDecimal currentPrice = current.getPriceHourly();
+        if (best == null || best.getSlug().equals(current.getSlug()) || best.getPriceHourly().compareTo(currentPrice) >= 0) {
+            if (neededExecutors < numExecutors) {
+                return summary + "; " + neededExecutors + " executors would serve the same load";
+            }
+            return summary + "; the size fits the load";
+        }
+
+        return summary + String.format("; %s (%d vCPU, %d MB) with %d executors would serve the same load for $%s/h instead of $%s/h",
+                best.getSlug(), best.getVirutalCpuCount(), best.getMemorySizeInMb(), neededExecutors,
+                best.getPriceHourly().toPlainString(), currentPrice.toPlainString());
+    }
+
+    private static File getFile() {
+        return new File(Jenkins.getInstance().getRootDir(), "digitalocean-utilization.txt");
+    }
+
+    /**
+     * Saves all templates' utilization to the rolling file.
+     */
+    static void save() {
+        synchronized (byTemplate) {
+            AtomicFileWriter writer = null;
+            try {
+                writer = new AtomicFileWriter(getFile());
+                for (Map.Entry<String, Utilization> entry : byTemplate.entrySet()) {
+                    synchronized (entry.getValue().hours) {
+                        for (Map.Entry<Long, Bucket> hour : entry.getValue().hours.entrySet()) {
+                            Bucket b = hour.getValue();
+                            writer.write(entry.getKey() + "\t" + hour.getKey() + "\t" + b.samples + "\t" + b.cpuSum
+                                    + "\t" + b.memorySum + "\t" + b.memoryMax + "\t" + b.diskMax + "\t" + b.busySum
+                                    + "\t" + b.busyMax + "\n");
+                        }
+                    }
+                }
+                writer.commit();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save the utilization of DigitalOcean slaves", e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.abort();
+                    } catch (IOException e) {
+                        // already committed
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the rolling file, once. Called while holding the lock on {@link #byTemplate}.
+     */
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        File file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 9) {
+                        continue;
+                    }
+                    Utilization utilization = byTemplate.get(fields[0]);
+                    if (utilization == null) {
+                        utilization = new Utilization();
+                        byTemplate.put(fields[0], utilization);
+                    }
+                    Bucket bucket = new Bucket();
+                    bucket.samples = Integer.parseInt(fields[2]);
+                    bucket.cpuSum = Double.parseDouble(fields[3]);
+                    bucket.memorySum = Double.parseDouble(fields[4]);
+                    bucket.memoryMax = Double.parseDouble(fields[5]);
+                    bucket.diskMax = Double.parseDouble(fields[6]);
+                    bucket.busySum = Double.parseDouble(fields[7]);
+                    bucket.busyMax = Integer.parseInt(fields[8]);
+                    utilization.hours.put(Long.parseLong(fields[1]), bucket);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the utilization of DigitalOcean slaves", e);
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the utilization of DigitalOcean slaves", e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import hudson.remoting.Future;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the CPU, memory and disk usage and the busy executors of all online slaves once a minute, over their
+ * existing channels, and records them in the {@link Utilization} of their templates.
+ *
+ * <p>CPU usage is derived from the difference of the CPU time counters between two samples, so a slave's first
+ * sample only records memory, disk and executors.
+ *
+ * <p>The samples also drive the executors of slaves whose templates derive them from the droplet, see
+ * {@link ExecutorScaling}.
+ */
+@Extension
+public class UtilizationSampler extends PeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(UtilizationSampler.class.getName());
+
+    private static final long PROBE_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The CPU time counters of the previous sample, by node name.
+     */
+    private final Map<String, long[]> previousCpuTimes = new ConcurrentHashMap<String, long[]>();
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void doRun() {
+        Map<Computer, Future<long[]>> probes = new HashMap<Computer, Future<long[]>>();
+
+        for (hudson.model.Computer c : Jenkins.getInstance().getComputers()) {
+            if (!(c instanceof Computer) || c.isOffline()) {
+                continue;
+            }
+            Computer computer = (Computer) c;
+            Slave slave = computer.getNode();
+            VirtualChannel channel = computer.getChannel();
+            if (slave == null || channel == null) {
+                continue;
+            }
+            try {
+                probes.put(computer, channel.callAsync(new Probe(slave.getRemoteFS())));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to sample " + computer.getName(), e);
+            }
+        }
+
+        for (Map.Entry<Computer, Future<long[]>> probe : probes.entrySet()) {
+            Computer computer = probe.getKey();
+            try {
+                record(computer, probe.getValue().get(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to sample " + computer.getName(), e);
+            }
+        }
+
+        // forget slaves that are gone
+        for (String name : previousCpuTimes.keySet()) {
+            if (Jenkins.getInstance().getNode(name) == null) {
+                previousCpuTimes.remove(name);
+            }
+        }
+
+        if (!probes.isEmpty()) {
+            Utilization.save();
+        }
+    }
+
+    private void record(Computer computer, long[] sample) {
+        String name = computer.getName();
+        String cloudName = DropletName.getCloudName(name);
+        String templateName = DropletName.getSlaveName(name);
+        if (cloudName == null || templateName == null) {
+            return;
+        }
+
+        long[] previous = previousCpuTimes.put(name, new long[] {sample[0], sample[1]});
+        if (previous == null || sample[0] <= previous[0]) {
+            return;
+        }
+
+        double cpu = 1 - (double) (sample[1] - previous[1]) / (sample[0] - previous[0]);
+        double memory = sample[2] == 0 ? 0 : 1 - (double) sample[3] / sample[2];
+        double disk = sample[4] == 0 ? 0 : 1 - (double) sample[5] / sample[4];
+
+        Utilization.record(cloudName, templateName, clamp(cpu), clamp(memory), clamp(disk),
+                computer.countBusy(), computer.countExecutors());
+
+        adjustExecutors(computer, sample[7] == 0 ? 0 : sample[6] / 1000.0 / sample[7], clamp(memory));
+    }
+
+    /**
+     * Adjusts the executors of slaves whose templates derive them from the droplet to the slave's load.
+     */
+    private void adjustExecutors(Computer computer, double loadPerCpu, double memory) {
+        Slave slave = computer.getNode();
+        SlaveTemplate template = slave == null ? null : slave.getTemplate();
+        if (template == null || !template.isAutoExecutors() || computer.isUsedUp()) {
+            return;
+        }
+
+        computer.resizeExecutors(ExecutorScaling.getTargetExecutors(slave.getNumExecutors(), computer.countBusy(),
+                loadPerCpu, memory, template.getNumExecutors()));
+    }
+
+    private static double clamp(double share) {
+        return Math.max(0, Math.min(1, share));
+    }
+
+    /**
+     * Reads the resource usage on a Linux slave: the total and idle CPU time, the total and available memory,
+     * the total and usable space of the slave's file system, the one minute load average in thousandths and the
+     * number of CPUs.
+     */
+    static final class Probe extends MasterToSlaveCallable<long[], IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String remoteFS;
+
+        Probe(String remoteFS) {
+            this.remoteFS = remoteFS;
+        }
+
+        @Override
+        public long[] call() throws IOException {
+            long[] sample = new long[8];
+
+            BufferedReader stat = new BufferedReader(new FileReader("/proc/stat"));
+            try {
+                // cpu  user nice system idle iowait irq softirq steal ...
+                String[] fields = stat.readLine().trim().split("\\s+");
+                for (int i = 1; i <= 8 && i < fields.length; i++) {
+                    sample[0] += Long.parseLong(fields[i]);
+                }
+                sample[1] = Long.parseLong(fields[4]) + (fields.length > 5 ? Long.parseLong(fields[5]) : 0);
+            } finally {
+                stat.close();
+            }
+
+            long free = 0;
+            long available = -1;
+            BufferedReader meminfo = new BufferedReader(new FileReader("/proc/meminfo"));
+            try {
+                for (String line; (line = meminfo.readLine()) != null; ) {
+                    String[] fields = line.split("\\s+");
+                    if (fields.length < 2) {
+                        continue;
+                    }
+                    if (fields[0].equals("MemTotal:")) {
+                        sample[2] = Long.parseLong(fields[1]);
+                    } else if (fields[0].equals("MemAvailable:")) {
+                        available = Long.parseLong(fields[1]);
+                    } else if (fields[0].equals("MemFree:") || fields[0].equals("Buffers:") || fields[0].equals("Cached:")) {
+                        free += Long.parseLong(fields[1]);
+                    }
+                }
+            } finally {
+                meminfo.close();
+            }
+            // older kernels don't estimate the available memory
+            sample[3] = available >= 0 ? available : free;
+
+            File fs = new File(remoteFS);
+            sample[4] = fs.getTotalSpace();
+            sample[5] = fs.getUsableSpace();
+
+            BufferedReader loadavg = new BufferedReader(new FileReader("/proc/loadavg"));
+            try {
+                // 1 5 15 running/total last-pid
+                sample[6] = Math.round(Double.parseDouble(loadavg.readLine().trim().split("\\s+")[0]) * 1000);
+            } finally {
+                loadavg.close();
+            }
+            sample[7] = Runtime.getRuntime().availableProcessors();
+
+            return sample;
+        }
+    }
+}
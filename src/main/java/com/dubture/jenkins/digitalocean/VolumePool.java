@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.myjeeva.digitalocean.common.ActionStatus;
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
+import com.myjeeva.digitalocean.pojo.Action;
+import com.myjeeva.digitalocean.pojo.Volume;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out pre-existing block storage volumes to slaves, so that build caches survive the droplets using them.
+ *
+ * <p>The volumes of a pool are the volumes in the template's region whose names start with the template's volume
+ * pool prefix. A volume is leased to a droplet before it's attached and the lease is held until it's detached again,
+ * so a volume is never handed to two droplets at once, even while the API doesn't show the attachment yet. Volumes
+ * the API reports as attached are never leased, which keeps volumes attached before a restart out of the pool.
+ */
+final class VolumePool {
+
+    private static final Logger LOGGER = Logger.getLogger(VolumePool.class.getName());
+
+    private static final long DETACH_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    private static final long DETACH_POLL_MILLIS = 5000;
+
+    /**
+     * Volumes leased to droplets, by droplet id.
+     */
+    private static final Map<Integer, Lease> leases = new HashMap<Integer, Lease>();
+
+    private VolumePool() {
+    }
+
+    /**
+     * A volume leased to a droplet.
+     */
+    static final class Lease {
+
+        private final String volumeId;
+
+        private final String volumeName;
+
+        private final String regionId;
+
+        private final String mountPath;
+
+        Lease(String volumeId, String volumeName, String regionId, String mountPath) {
+            this.volumeId = volumeId;
+            this.volumeName = volumeName;
+            this.regionId = regionId;
+            this.mountPath = mountPath;
+        }
+
+        public String getVolumeId() {
+            return volumeId;
+        }
+
+        public String getVolumeName() {
+            return volumeName;
+        }
+
+        public String getRegionId() {
+            return regionId;
+        }
+
+        public String getMountPath() {
+            return mountPath;
+        }
+
+        /**
+         * @return the path of the volume's block device on the droplet
+         */
+        public String getDevicePath() {
+            return "/dev/disk/by-id/scsi-0DO_Volume_" + volumeName;
+        }
+    }
+
+    /**
+     * Leases a free volume from the template's pool and attaches it to the droplet. The attachment completes
+     * asynchronously, the slave waits for the block device to appear before mounting it.
+     * @return the lease, or null if the pool has no free volume
+     */
+    static Lease attach(String authToken, Integer dropletId, SlaveTemplate template)
+            throws DigitalOceanException, RequestUnsuccessfulException {
+        ApiClient client = DigitalOcean.newClient(authToken);
+        String regionId = template.getRegionId();
+        List<Volume> volumes = client.getAvailableVolumes(regionId).getVolumes();
+        Lease lease = null;
+
+        // only pick the lease under the lock, so that detaching other volumes doesn't wait for the listing
+        synchronized (leases) {
+            Set<String> leasedVolumeIds = new HashSet<String>();
+            for (Lease l : leases.values()) {
+                leasedVolumeIds.add(l.getVolumeId());
+            }
+
+            for (Volume volume : volumes) {
+                List<Integer> dropletIds = volume.getDropletIds();
+                if (volume.getName().startsWith(template.getVolumePool())
+                        && (dropletIds == null || dropletIds.isEmpty())
+                        && !leasedVolumeIds.contains(volume.getId())) {
+                    lease = new Lease(volume.getId(), volume.getName(), regionId, template.getVolumeMountPath());
+                    leases.put(dropletId, lease);
+                    break;
+                }
+            }
+        }
+
+        if (lease == null) {
+            return null;
+        }
+
+        LOGGER.info("Attaching volume " + lease.getVolumeName() + " to droplet " + dropletId);
+        try {
+            client.attachVolume(dropletId, lease.getVolumeId(), regionId);
+        } catch (DigitalOceanException e) {
+            release(dropletId);
+            throw e;
+        } catch (RequestUnsuccessfulException e) {
+            release(dropletId);
+            throw e;
+        }
+
+        return lease;
+    }
+
+    /**
+     * Restores the lease of a slave loaded from disk.
+     */
+    static void register(Integer dropletId, Lease lease) {
+        synchronized (leases) {
+            leases.put(dropletId, lease);
+        }
+    }
+
+    /**
+     * Detaches the volume leased to the droplet, if any, and returns it to the pool. The detach action is polled with
+     * delayed calls rather than by a thread waiting for it, so no thread is held while the volume detaches.
+     * @return a future that completes once the volume is detached, or detaching it failed or timed out, so that the
+     * droplet can be destroyed; it never fails
+     */
+    static ListenableFuture<Void> detach(String authToken, final Integer dropletId) {
+        final Lease lease;
+        synchronized (leases) {
+            lease = leases.get(dropletId);
+        }
+        if (lease == null) {
+            return Futures.<Void>immediateFuture(null);
+        }
+
+        LOGGER.info("Detaching volume " + lease.getVolumeName() + " from droplet " + dropletId);
+        final SettableFuture<Void> detached = SettableFuture.create();
+        final AsyncApiClient client = AsyncApiClient.forToken(authToken);
+        ListenableFuture<Action> action = client.call("detachVolume", new AsyncApiClient.Call<Action>() {
+            @Override
+            public Action call(String authToken) throws Exception {
+                return DigitalOcean.newClient(authToken).detachVolume(dropletId, lease.getVolumeId(), lease.getRegionId());
+            }
+        });
+        Futures.addCallback(action, new FutureCallback<Action>() {
+            @Override
+            public void onSuccess(Action result) {
+                pollDetach(client, lease, dropletId, result.getId(), System.currentTimeMillis() + DETACH_TIMEOUT_MILLIS,
+                        detached);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // destroying the droplet detaches the volume as well
+                LOGGER.log(Level.WARNING, "Failed to detach volume " + lease.getVolumeName() + " from droplet " + dropletId, t);
+                release(dropletId);
+                detached.set(null);
+            }
+        });
+        return detached;
+    }
+
+    private static void pollDetach(final AsyncApiClient client, final Lease lease, final Integer dropletId,
+                                   final Integer actionId, final long deadlineMillis, final SettableFuture<Void> detached) {
+        Futures.addCallback(client.getAction(actionId, DETACH_POLL_MILLIS), new FutureCallback<Action>() {
+            @Override
+            public void onSuccess(Action result) {
+                if (result.getStatus() == ActionStatus.COMPLETED) {
+                    done();
+                } else if (result.getStatus() == ActionStatus.ERRORED) {
+                    LOGGER.warning("Detaching volume " + lease.getVolumeName() + " from droplet " + dropletId
+                            + " errored, it's detached when the droplet is destroyed");
+                    done();
+                } else if (System.currentTimeMillis() >= deadlineMillis) {
+                    LOGGER.warning("Volume " + lease.getVolumeName() + " was not detached in time, it's detached when the droplet is destroyed");
+                    done();
+                } else {
+                    pollDetach(client, lease, dropletId, actionId, deadlineMillis, detached);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOGGER.log(Level.WARNING, "Failed to detach volume " + lease.getVolumeName() + " from droplet " + dropletId, t);
+                done();
+            }
+
+            private void done() {
+                release(dropletId);
+                detached.set(null);
+            }
+        });
+    }
+
+    private static void release(Integer dropletId) {
+        synchronized (leases) {
+            leases.remove(dropletId);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ApiMetricsTest {
+
+    @After
+    public void tearDown() {
+        FakeDigitalOcean.uninstall();
+    }
+
+    @Test
+    public void recordsCallsAndErrorsPerEndpoint() throws Exception {
+        new FakeDigitalOcean().install();
+        String authToken = "metrics-" + System.nanoTime();
+
+        DigitalOcean.getDroplets(authToken);
+        try {
+            DigitalOcean.getDroplet(authToken, 42);
+            fail("Droplet 42 doesn't exist");
+        } catch (DigitalOceanException e) {
+            // expected
+        }
+
+        ApiMetrics metrics = ApiMetrics.forToken(authToken);
+        assertEquals(2, metrics.getTotalCalls());
+        assertEquals(2, metrics.getEndpoints().size());
+
+        ApiMetrics.Endpoint list = metrics.getEndpoints().get(0);
+        assertEquals("getAvailableDroplets", list.getName());
+        assertEquals(0, list.getErrors());
+
+        ApiMetrics.Endpoint get = metrics.getEndpoints().get(1);
+        assertEquals("getDropletInfo", get.getName());
+        assertEquals(1, get.getErrors());
+        assertEquals(Long.valueOf(1), get.getStatuses().get("404"));
+    }
+
+    @Test
+    public void bucketsLatencies() {
+        ApiMetrics.Endpoint endpoint = new ApiMetrics.Endpoint("test");
+        endpoint.record(10, "2xx");
+        endpoint.record(50, "2xx");
+        endpoint.record(300, "2xx");
+        endpoint.record(60000, "429");
+
+        assertEquals(Arrays.asList(2L, 0L, 0L, 1L, 0L, 0L, 0L, 0L, 1L), endpoint.getLatencyBuckets());
+        assertEquals(60000, endpoint.getMaxMillis());
+        assertEquals(1, endpoint.getErrors());
+    }
+}
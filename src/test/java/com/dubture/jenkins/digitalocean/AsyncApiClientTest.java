@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.pojo.Droplet;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncApiClientTest {
+
+    @After
+    public void uninstallFake() {
+        FakeDigitalOcean.uninstall();
+    }
+
+    @Test
+    public void makesCallsAsynchronously() throws Exception {
+        new FakeDigitalOcean().withLatency(100).install();
+        AsyncApiClient client = AsyncApiClient.forToken("token");
+
+        Droplet droplet = new Droplet();
+        droplet.setName("async");
+        Droplet created = client.createDroplet(droplet).get(10, TimeUnit.SECONDS);
+
+        ListenableFuture<Droplet> info = client.getDroplet(created.getId());
+        ListenableFuture<List<Droplet>> droplets = client.getDroplets();
+
+        assertEquals("async", info.get(10, TimeUnit.SECONDS).getName());
+        assertEquals(1, droplets.get(10, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void failsCallsPastTheirDeadline() throws Exception {
+        new FakeDigitalOcean().withLatency(5000).install();
+        long start = System.currentTimeMillis();
+
+        try {
+            AsyncApiClient.forToken("token").withDeadline(100).getDroplets().get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void rejectsCallsBeyondTheQueue() throws Exception {
+        new FakeDigitalOcean().withLatency(5000).install();
+        AsyncApiClient client = AsyncApiClient.forToken("token");
+
+        List<ListenableFuture<List<Droplet>>> calls = new ArrayList<ListenableFuture<List<Droplet>>>();
+        try {
+            for (int i = 0; i < AsyncApiClient.MAX_CONCURRENT_CALLS + AsyncApiClient.MAX_QUEUED_CALLS; i++) {
+                calls.add(client.getDroplets());
+            }
+            try {
+                client.getDroplets().get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+                // a rejected delete is retried rather than leaving the droplet running
+                assertTrue(DigitalOcean.isDestroyRetryable(e.getCause()));
+            }
+        } finally {
+            for (ListenableFuture<List<Droplet>> call : calls) {
+                call.cancel(true);
+            }
+        }
+    }
+
+    @Test
+    public void retriesDeletesUntilTheDropletIsGone() throws Exception {
+        FakeDigitalOcean fake = new FakeDigitalOcean().withDeleteFailures(1).install();
+        Droplet droplet = new Droplet();
+        droplet.setName("leaked");
+        Droplet created = AsyncApiClient.forToken("token").createDroplet(droplet).get(10, TimeUnit.SECONDS);
+
+        DigitalOcean.tryDestroyDropletAsync("token", created.getId());
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (fake.getLiveDroplets() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, fake.getLiveDroplets());
+        assertEquals(2, fake.getCalls("droplets.delete"));
+    }
+
+    @Test
+    public void retriesDeletesOnlyForTransientFailures() {
+        assertTrue(DigitalOcean.isDestroyRetryable(new CircuitBreaker.OpenException(CircuitBreaker.forToken("token"))));
+        assertTrue(DigitalOcean.isDestroyRetryable(new TimeoutException()));
+        assertTrue(DigitalOcean.isDestroyRetryable(new DigitalOceanException("Server error", "server_error", 500)));
+        assertTrue(DigitalOcean.isDestroyRetryable(
+                new DigitalOceanException("Droplet already has a pending event.", "unprocessable_entity", 422)));
+        assertFalse(DigitalOcean.isDestroyRetryable(new DigitalOceanException("Not found", "not_found", 404)));
+        assertFalse(DigitalOcean.isDestroyRetryable(new DigitalOceanException("Unauthorized", "unauthorized", 401)));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelsCalls() throws Exception {
+        new FakeDigitalOcean().withLatency(5000).install();
+
+        ListenableFuture<List<Droplet>> droplets = AsyncApiClient.forToken("token").getDroplets();
+        droplets.cancel(true);
+
+        droplets.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test");
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breaker.tryAcquire(0));
+            breaker.onFailure(0);
+        }
+        breaker.onSuccess();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.onFailure(0);
+        }
+        assertFalse(breaker.isOpen());
+
+        breaker.onFailure(0);
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire(CircuitBreaker.MIN_OPEN_MILLIS - 1));
+    }
+
+    @Test
+    public void probesOnceAndBacksOff() {
+        CircuitBreaker breaker = openBreaker();
+
+        long now = CircuitBreaker.MIN_OPEN_MILLIS;
+        assertTrue(breaker.tryAcquire(now));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // only one probe at a time
+        assertFalse(breaker.tryAcquire(now));
+
+        breaker.onFailure(now);
+        assertEquals(2 * CircuitBreaker.MIN_OPEN_MILLIS, breaker.getRetryMillis(now));
+
+        now += 2 * CircuitBreaker.MIN_OPEN_MILLIS;
+        assertTrue(breaker.tryAcquire(now));
+        breaker.onSuccess();
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquire(now));
+    }
+
+    @Test
+    public void onlyServerSideErrorsAreFailures() {
+        assertTrue(CircuitBreaker.isFailure(new RequestUnsuccessfulException("timed out", null)));
+        assertTrue(CircuitBreaker.isFailure(new DigitalOceanException("Server error", "server_error", 500)));
+        assertTrue(CircuitBreaker.isFailure(new DigitalOceanException("API Rate limit exceeded.", "too_many_requests", 429)));
+        assertFalse(CircuitBreaker.isFailure(new DigitalOceanException("Not found", "not_found", 404)));
+        assertFalse(CircuitBreaker.isFailure(new DigitalOceanException("Droplet limit", "unprocessable_entity", 422)));
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("test");
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.tryAcquire(0);
+            breaker.onFailure(0);
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.common.DropletStatus;
+import com.myjeeva.digitalocean.pojo.Droplet;
+import hudson.model.Label;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the controller-side work done by {@link Cloud#canProvision(Label)} and {@link Cloud#provision(Label, int)}
+ * on every {@link hudson.slaves.NodeProvisioner} tick: matching labels against templates and counting the nodes and
+ * droplets of a cloud and of a template for the instance caps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloudBenchmark {
+
+    private static final String CLOUD_NAME = "benchmark";
+
+    private static final int DISTINCT_LABELS = 200;
+
+    @State(Scope.Benchmark)
+    public static class Templates extends JenkinsBenchmarkState {
+
+        @Param({"1", "10", "40"})
+        public int templateCount;
+
+        Cloud cloud;
+
+        Label[] labels;
+
+        int next;
+
+        @Override
+        protected void setUp() {
+            List<SlaveTemplate> templates = new ArrayList<SlaveTemplate>();
+            for (int i = 0; i < templateCount; i++) {
+                templates.add(TemplateBuilder.template("template." + i).labels("linux template-" + i).build());
+            }
+            cloud = new Cloud(CLOUD_NAME, "token", "", "1", "0", "5", templates, Collections.<Account>emptyList());
+
+            // half of the labels match a template, the other half doesn't match any
+            labels = new Label[DISTINCT_LABELS];
+            for (int i = 0; i < DISTINCT_LABELS; i++) {
+                String atom = "template-" + (i % (templateCount * 2));
+                labels[i] = i % 3 == 0 ? Label.get(atom) : Jenkins.getInstance().getLabel("linux && " + atom);
+            }
+        }
+
+        Label nextLabel() {
+            next = (next + 1) % labels.length;
+            return labels[next];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Fleet extends JenkinsBenchmarkState {
+
+        @Param({"100", "1000", "5000"})
+        public int nodeCount;
+
+        List<Droplet> droplets;
+
+        @Override
+        protected void setUp() throws Exception {
+            droplets = new ArrayList<Droplet>(nodeCount);
+
+            for (int i = 0; i < nodeCount; i++) {
+                // every tenth node and droplet belongs to some other cloud
+                String cloudName = i % 10 == 0 ? "other" : CLOUD_NAME;
+                String name = DropletName.generateDropletName(cloudName, "template." + (i % 4));
+
+                Droplet droplet = new Droplet();
+                droplet.setId(i);
+                droplet.setName(name);
+                droplet.setStatus(i % 20 == 0 ? DropletStatus.NEW : DropletStatus.ACTIVE);
+                droplets.add(droplet);
+
+                NodeCounter.add(name);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<SlaveTemplate> getTemplates(Templates state) {
+        return state.cloud.getTemplates(state.nextLabel());
+    }
+
+    @Benchmark
+    public int countCloudNodes(Fleet state) {
+        return NodeCounter.countCloudNodes(CLOUD_NAME);
+    }
+
+    @Benchmark
+    public int countCloudDroplets(Fleet state) {
+        return Cloud.countDroplets(state.droplets, CLOUD_NAME);
+    }
+
+    @Benchmark
+    public int countTemplateNodes(Fleet state) {
+        return NodeCounter.countTemplateNodes(CLOUD_NAME, "template.1");
+    }
+
+    @Benchmark
+    public int countTemplateDroplets(Fleet state) {
+        return SlaveTemplate.countDroplets(state.droplets, CLOUD_NAME, "template.1");
+    }
+}
@@ -24,32 +24,214 @@
 
 package com.dubture.jenkins.digitalocean;
 
-import org.junit.Assert;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.slaves.NodeProvisioner;
+import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
 
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end provisioning load tests against {@link FakeDigitalOcean}.
+ *
+ * <p>Each test drives many concurrent {@link Cloud#provision(Label, int)} calls and reports the provisioning rate,
+ * the API calls made per node, the instance cap overshoot and the time until the first slave with executors is
+ * registered. The fake droplets never actually run SSH, so the slaves are measured up to being registered with
+ * Jenkins, not up to running builds.
+ */
 public class CloudTest {
 
-    /*
+    private static final Logger LOGGER = Logger.getLogger(CloudTest.class.getName());
+
+    private static final String LABEL = "load";
+
     @Rule
     public JenkinsRule jenkinsRule = new JenkinsRule();
-    */
+
+    @After
+    public void uninstallFake() {
+        FakeDigitalOcean.uninstall();
+    }
+
+    @Test
+    public void provisionsUpToInstanceCap() throws Exception {
+        FakeDigitalOcean fake = new FakeDigitalOcean().withLatency(20).withBootDelay(500).install();
+
+        Report report = runLoad(fake, 50, 200);
+
+        assertEquals(50, report.nodes);
+        assertEquals(0, report.capOvershoot);
+    }
+
+    @Test
+    public void stopsAtAccountDropletLimit() throws Exception {
+        FakeDigitalOcean fake = new FakeDigitalOcean().withLatency(20).withBootDelay(500).withDropletLimit(20).install();
+
+        Report report = runLoad(fake, 50, 200);
+
+        assertEquals(20, report.nodes);
+        // the account's limit is known up front, so no creates are attempted past it
+        assertEquals(20, fake.getCalls("droplets.create"));
+    }
 
     @Test
-    public void testSomething() throws Exception {
+    public void staysWithinAccountLimitOnCapacityErrors() throws Exception {
+        FakeDigitalOcean fake = new FakeDigitalOcean()
+                .withLatency(20)
+                .withBootDelay(500)
+                .withDropletLimit(20)
+                .withCapacityErrorRate(0.1)
+                .install();
+
+        Report report = runLoad(fake, 50, 200);
+
+        assertTrue("at most 20 nodes should be provisioned, got " + report.nodes, report.nodes <= 20);
+        assertTrue(fake.getPeakLiveDroplets() <= 20);
+    }
+
+    @Test
+    public void prewarmCountsSlavesStillLaunching() throws Exception {
+        new FakeDigitalOcean().withCreateLatency(2000).withBootDelay(500).install();
+
+        ServerSocket socket = new ServerSocket(0);
+        int closedPort = socket.getLocalPort();
+        socket.close();
+
+        SlaveTemplate template = TemplateBuilder.template("warm").labels(LABEL).sshPort(closedPort).build();
+        Cloud cloud = new Cloud("fake", "token", "", "1", "10", "5", Collections.singletonList(template),
+                Collections.<Account>emptyList());
+        jenkinsRule.jenkins.clouds.add(cloud);
+
+        Label label = Label.get(LABEL);
+        assertEquals(3, cloud.prewarm(label, 3).size());
+        // the droplets of the first call are still being created
+        assertEquals(0, cloud.prewarm(label, 3).size());
+        assertEquals(2, cloud.prewarm(label, 5).size());
+    }
+
+    /**
+     * Registers a cloud with the given instance cap and calls {@link Cloud#provision(Label, int)} the given number
+     * of times concurrently, waiting until no more droplets are being created.
+     */
+    private Report runLoad(FakeDigitalOcean fake, int instanceCap, int provisionCalls) throws Exception {
+        // the droplets "boot" on localhost, make sure nothing answers on their SSH port
+        ServerSocket socket = new ServerSocket(0);
+        int closedPort = socket.getLocalPort();
+        socket.close();
 
-        /*
         List<SlaveTemplate> templates = new ArrayList<SlaveTemplate>();
-        templates.add(new SlaveTemplate("444", "4", "4", "4", "10", ""));
-        jenkinsRule.getInstance().clouds.add(new Cloud("foo", "key", "id", "key", "2", templates));
-        hudson.slaves.Cloud foo = jenkinsRule.getInstance().getCloud("foo");
-        jenkinsRule.createSlave();
-        List<Node> nodes = jenkinsRule.getInstance().getNodes();
-        */
+        templates.add(TemplateBuilder.template("load").labels(LABEL).sshPort(closedPort).build());
+        final Cloud cloud = new Cloud("fake", "token", "", "1", String.valueOf(instanceCap), "5", templates,
+                Collections.<Account>emptyList());
+        jenkinsRule.jenkins.clouds.add(cloud);
+
+        final Label label = Label.get(LABEL);
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        List<Future<Collection<NodeProvisioner.PlannedNode>>> results = new ArrayList<Future<Collection<NodeProvisioner.PlannedNode>>>();
+
+        final long startTime = System.currentTimeMillis();
+        for (int i = 0; i < provisionCalls; i++) {
+            results.add(executor.submit(new Callable<Collection<NodeProvisioner.PlannedNode>>() {
+                @Override
+                public Collection<NodeProvisioner.PlannedNode> call() {
+                    return cloud.provision(label, 1);
+                }
+            }));
+        }
 
-        //TODO: find out how to write jenkins tests :)
-        // i'm seeing Caused by: java.io.FileNotFoundException: jenkins/./target/jenkins-for-test.exploding (No such file or directory)
-        Assert.assertTrue(true);
+        List<String> plannedNodes = new ArrayList<String>();
+        for (Future<Collection<NodeProvisioner.PlannedNode>> result : results) {
+            for (NodeProvisioner.PlannedNode node : result.get()) {
+                plannedNodes.add(node.displayName);
+            }
+        }
+        executor.shutdown();
+
+        // wait until the droplets of the planned nodes are created and their nodes registered
+        long firstNodeMillis = -1;
+        long deadline = System.currentTimeMillis() + 30000;
+        int nodes = countCloudNodes(cloud);
+        while (!isDoneCreating(plannedNodes, nodes) && System.currentTimeMillis() < deadline) {
+            if (nodes > 0 && firstNodeMillis < 0) {
+                firstNodeMillis = System.currentTimeMillis() - startTime;
+            }
+            Thread.sleep(50);
+            nodes = countCloudNodes(cloud);
+        }
+        assertTrue("droplets still being created after 30 s", isDoneCreating(plannedNodes, nodes));
+        if (nodes > 0 && firstNodeMillis < 0) {
+            firstNodeMillis = System.currentTimeMillis() - startTime;
+        }
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+
+        Report report = new Report();
+        report.nodes = nodes;
+        report.nodesPerMinute = nodes * TimeUnit.MINUTES.toMillis(1) / (double) Math.max(elapsedMillis, 1);
+        report.apiCallsPerNode = fake.getTotalCalls() / (double) Math.max(nodes, 1);
+        report.capOvershoot = Math.max(0, fake.getPeakLiveDroplets() - instanceCap);
+        report.timeToFirstExecutorMillis = firstNodeMillis;
+
+        LOGGER.fine("Provisioning load report: " + provisionCalls + " provision() calls, "
+                + plannedNodes.size() + " planned nodes, " + report + ", API calls " + fake.getCallsByEndpoint());
+
+        return report;
+    }
+
+    /**
+     * Whether none of the planned nodes' droplets is still being created and all created ones are registered.
+     */
+    private static boolean isDoneCreating(List<String> plannedNodes, int nodes) {
+        int created = 0;
+        for (String nodeName : plannedNodes) {
+            DropletLaunch.State state = DropletLaunch.getState(nodeName);
+            if (state == DropletLaunch.State.PENDING) {
+                return false;
+            }
+            if (state != null && state != DropletLaunch.State.FAILED) {
+                created++;
+            }
+        }
+        return nodes >= created;
+    }
+
+    private int countCloudNodes(Cloud cloud) {
+        int count = 0;
+        for (Node node : jenkinsRule.jenkins.getNodes()) {
+            if (node instanceof Slave && cloud.name.equals(((Slave) node).getCloudName()) && node.getNumExecutors() > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
 
+    private static class Report {
+        int nodes;
+        double nodesPerMinute;
+        double apiCallsPerNode;
+        int capOvershoot;
+        long timeToFirstExecutorMillis;
 
+        @Override
+        public String toString() {
+            return String.format("%d nodes, %.1f nodes/minute, %.1f API calls/node, cap overshoot %d, "
+                    + "time to first executor %d ms", nodes, nodesPerMinute, apiCallsPerNode, capOvershoot,
+                    timeToFirstExecutorMillis);
+        }
     }
 }
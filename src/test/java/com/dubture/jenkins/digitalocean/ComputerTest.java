@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.slaves.NodeProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests what happens to {@link Computer}s once they are done with their builds. The slaves never connect, their
+ * droplets live in {@link FakeDigitalOcean}.
+ */
+public class ComputerTest {
+
+    private static final String LABEL = "recycle";
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Before
+    public void installFake() {
+        new FakeDigitalOcean().install();
+    }
+
+    @After
+    public void uninstallFake() {
+        FakeDigitalOcean.uninstall();
+    }
+
+    @Test
+    public void doesNotRecycleWithoutQueuedBuilds() throws Exception {
+        Slave slave = addSlave("idle", RecycleMode.RESET);
+
+        assertFalse(tryRecycle(computerOf(slave)));
+        assertTrue(computerOf(slave).isAcceptingTasks());
+    }
+
+    @Test
+    public void recyclesForQueuedBuildAndTerminatesIfRecyclingFails() throws Exception {
+        Slave slave = addSlave("recycled", RecycleMode.RESET);
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        project.setAssignedLabel(Label.get(LABEL));
+        project.scheduleBuild2(0);
+        jenkinsRule.jenkins.getQueue().maintain();
+
+        // the slave never connected, so resetting its workspace fails and it's terminated instead
+        assertTrue(tryRecycle(computerOf(slave)));
+        waitForRemoval(slave);
+    }
+
+    @Test
+    public void doesNotRecycleWhenDisabled() throws Exception {
+        Slave slave = addSlave("disabled", RecycleMode.NONE);
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        project.setAssignedLabel(Label.get(LABEL));
+        project.scheduleBuild2(0);
+        jenkinsRule.jenkins.getQueue().maintain();
+
+        assertFalse(tryRecycle(computerOf(slave)));
+    }
+
+    @Test
+    public void terminatesSingleUseSlaveAfterItsBuild() throws Exception {
+        SlaveTemplate template = TemplateBuilder.template("single").labels(LABEL).numExecutors(4).build();
+        template.setSingleUse(true);
+        assertEquals(1, template.getNumExecutors());
+        jenkinsRule.jenkins.clouds.add(new Cloud("fake", "token", "", "1", "10", "5",
+                Collections.singletonList(template), Collections.<Account>emptyList()));
+
+        Slave slave = addSlave(DropletName.generateDropletName("fake", "single"), RecycleMode.NONE);
+        Computer computer = computerOf(slave);
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+
+        computer.taskAccepted(null, project);
+        assertTrue(computer.isUsedUp());
+        assertFalse(computer.isAcceptingTasks());
+
+        computer.taskCompleted(null, project, 0);
+        waitForRemoval(slave);
+    }
+
+    private Slave addSlave(String name, RecycleMode recycleMode) throws Exception {
+        Slave slave = new Slave("fake", name, "", 1, "", "root", "/jenkins", 22, 1, 10, Node.Mode.NORMAL, LABEL,
+                new ComputerLauncher(), new ManualRetentionStrategy(), Collections.<NodeProperty<?>>emptyList(), "", "",
+                "1", recycleMode, NetworkType.PUBLIC, "", "");
+        jenkinsRule.jenkins.addNode(slave);
+        return slave;
+    }
+
+    static Computer computerOf(Slave slave) {
+        return (Computer) slave.toComputer();
+    }
+
+    private static boolean tryRecycle(final Computer computer) throws Exception {
+        return Queue.withLock(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return computer.tryRecycle();
+            }
+        });
+    }
+
+    private void waitForRemoval(Slave slave) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (jenkinsRule.jenkins.getNode(slave.getNodeName()) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertNull(jenkinsRule.jenkins.getNode(slave.getNodeName()));
+    }
+
+    /**
+     * Leaves connecting to the slaves to the test.
+     */
+    public static class ManualRetentionStrategy extends RetentionStrategy {
+        @Override
+        public void start(Computer computer) {
+        }
+    }
+}
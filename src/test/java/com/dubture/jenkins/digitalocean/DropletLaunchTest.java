@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.net.ServerSocket;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DropletLaunchTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @After
+    public void uninstallFake() {
+        FakeDigitalOcean.uninstall();
+    }
+
+    @Test
+    public void launchesProgressDuringBurstOfSlowCreates() throws Exception {
+        FakeDigitalOcean fake = new FakeDigitalOcean().install();
+
+        // the droplets "boot" on localhost, make sure nothing answers on their SSH port
+        ServerSocket socket = new ServerSocket(0);
+        int closedPort = socket.getLocalPort();
+        socket.close();
+
+        SlaveTemplate template = TemplateBuilder.template("burst").labels("burst").sshPort(closedPort).build();
+        Cloud cloud = new Cloud("fake", "token", "", "1", "100", "5", Collections.singletonList(template),
+                Collections.<Account>emptyList());
+        jenkinsRule.jenkins.clouds.add(cloud);
+
+        String first = DropletName.generateDropletName(cloud.name, template.getName());
+        DropletLaunch.start(cloud, template, first);
+        waitForState(first, DropletLaunch.State.CREATED, 10000);
+
+        // keep every worker busy creating droplets for longer than the first launch needs to boot
+        fake.withCreateLatency(30000);
+        for (int i = 0; i < 20; i++) {
+            DropletLaunch.start(cloud, template, DropletName.generateDropletName(cloud.name, template.getName()));
+        }
+
+        waitForState(first, DropletLaunch.State.IP_ASSIGNED, 15000);
+    }
+
+    private static void waitForState(String nodeName, DropletLaunch.State state, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            DropletLaunch.State current = DropletLaunch.getState(nodeName);
+            assertTrue("launch of " + nodeName + " is gone", current != null);
+            if (current.compareTo(state) >= 0) {
+                assertTrue("launch of " + nodeName + " failed", current != DropletLaunch.State.FAILED);
+                return;
+            }
+            Thread.sleep(50);
+        }
+        assertEquals(state, DropletLaunch.getState(nodeName));
+    }
+}
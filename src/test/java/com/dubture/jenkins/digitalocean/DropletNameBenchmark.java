@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks generating droplet names and matching them against clouds and templates, which happens for every
+ * node and droplet on every instance cap check.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DropletNameBenchmark {
+
+    private final String matchingName = DropletName.generateDropletName("cloud.1", "template.1");
+
+    private final String otherCloudName = DropletName.generateDropletName("cloud.2", "template.1");
+
+    private final String foreignName = "some-droplet-not-created-by-jenkins";
+
+    @Benchmark
+    public String generate() {
+        return DropletName.generateDropletName("cloud.1", "template.1");
+    }
+
+    @Benchmark
+    public boolean matchCloud() {
+        return DropletName.isDropletInstanceOfCloud(matchingName, "cloud.1");
+    }
+
+    @Benchmark
+    public boolean matchCloudOfOtherCloud() {
+        return DropletName.isDropletInstanceOfCloud(otherCloudName, "cloud.1");
+    }
+
+    @Benchmark
+    public boolean matchCloudOfForeignDroplet() {
+        return DropletName.isDropletInstanceOfCloud(foreignName, "cloud.1");
+    }
+
+    @Benchmark
+    public boolean matchTemplate() {
+        return DropletName.isDropletInstanceOfSlave(matchingName, "cloud.1", "template.1");
+    }
+}
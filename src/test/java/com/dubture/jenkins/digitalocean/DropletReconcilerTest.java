@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DropletReconcilerTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @After
+    public void uninstallFake() {
+        FakeDigitalOcean.uninstall();
+    }
+
+    @Test
+    public void removesSlavesWhoseDropletsAreGone() throws Exception {
+        new FakeDigitalOcean().install();
+        jenkinsRule.jenkins.clouds.add(new Cloud("fake", "token", "", "1", "10", "5",
+                Collections.<SlaveTemplate>emptyList(), Collections.<Account>emptyList()));
+
+        Slave slave = new Slave("fake", "gone", "", 42, "", "root", "/jenkins", 22, 1, 10, Node.Mode.NORMAL, "",
+                new ComputerLauncher(), new ComputerTest.ManualRetentionStrategy(),
+                Collections.<NodeProperty<?>>emptyList(), "", "", "1", RecycleMode.NONE, NetworkType.PUBLIC, "", "");
+        jenkinsRule.jenkins.addNode(slave);
+        assertNotNull(jenkinsRule.jenkins.getNode("gone"));
+
+        DropletReconciler.reconcile(Collections.singletonList(ComputerTest.computerOf(slave)));
+
+        assertNull(jenkinsRule.jenkins.getNode("gone"));
+    }
+
+    @Test
+    public void connectsRightAwayOnceJenkinsIsUp() throws Exception {
+        Slave slave = new Slave("fake", "late", "", 42, "", "root", "/jenkins", 22, 1, 10, Node.Mode.NORMAL, "",
+                new ComputerLauncher(), new ComputerTest.ManualRetentionStrategy(),
+                Collections.<NodeProperty<?>>emptyList(), "", "", "1", RecycleMode.NONE, NetworkType.PUBLIC, "", "");
+        jenkinsRule.jenkins.addNode(slave);
+
+        assertFalse(DropletReconciler.deferConnect(ComputerTest.computerOf(slave)));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExecutorScalingTest {
+
+    @Test
+    public void initialExecutorsFollowCpus() {
+        assertEquals(4, ExecutorScaling.getInitialExecutors(2, 2, 8));
+        assertEquals(8, ExecutorScaling.getInitialExecutors(8, 1.5, 8));
+        assertEquals(1, ExecutorScaling.getInitialExecutors(1, 0.5, 8));
+    }
+
+    @Test
+    public void growsOnlyWhileAllExecutorsAreBusyAndThereIsRoom() {
+        assertEquals(5, ExecutorScaling.getTargetExecutors(4, 4, 0.3, 0.4, 8));
+        assertEquals(4, ExecutorScaling.getTargetExecutors(4, 3, 0.3, 0.4, 8));
+        assertEquals(4, ExecutorScaling.getTargetExecutors(4, 4, 1.0, 0.4, 8));
+        assertEquals(8, ExecutorScaling.getTargetExecutors(8, 8, 0.3, 0.4, 8));
+    }
+
+    @Test
+    public void shrinksUnderPressure() {
+        assertEquals(3, ExecutorScaling.getTargetExecutors(4, 4, 2.0, 0.4, 8));
+        assertEquals(3, ExecutorScaling.getTargetExecutors(4, 4, 0.3, 0.95, 8));
+        assertEquals(1, ExecutorScaling.getTargetExecutors(1, 1, 4.0, 0.95, 8));
+    }
+}
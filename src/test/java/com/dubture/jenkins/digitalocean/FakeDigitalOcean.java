@@ -0,0 +1,490 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.common.ActionStatus;
+import com.myjeeva.digitalocean.common.DropletStatus;
+import com.myjeeva.digitalocean.common.ImageType;
+import com.myjeeva.digitalocean.exception.DigitalOceanException;
+import com.myjeeva.digitalocean.exception.RequestUnsuccessfulException;
+import com.myjeeva.digitalocean.impl.DigitalOceanClient;
+import com.myjeeva.digitalocean.pojo.Action;
+import com.myjeeva.digitalocean.pojo.Delete;
+import com.myjeeva.digitalocean.pojo.Droplet;
+import com.myjeeva.digitalocean.pojo.Droplets;
+import com.myjeeva.digitalocean.pojo.Image;
+import com.myjeeva.digitalocean.pojo.Images;
+import com.myjeeva.digitalocean.pojo.Key;
+import com.myjeeva.digitalocean.pojo.Keys;
+import com.myjeeva.digitalocean.pojo.Meta;
+import com.myjeeva.digitalocean.pojo.Network;
+import com.myjeeva.digitalocean.pojo.Networks;
+import com.myjeeva.digitalocean.pojo.Region;
+import com.myjeeva.digitalocean.pojo.Regions;
+import com.myjeeva.digitalocean.pojo.Size;
+import com.myjeeva.digitalocean.pojo.Sizes;
+import com.myjeeva.digitalocean.pojo.Tag;
+import com.myjeeva.digitalocean.pojo.Tags;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for the DigitalOcean API, covering the account, droplet, action, image, size, region, key
+ * and tag endpoints used by the plugin. Install it with {@link #install()}.
+ *
+ * <p>It models a configurable request latency, the time droplets take to boot, an account droplet limit, a rate
+ * limit and randomly occurring capacity errors, and counts the calls made to each endpoint.
+ */
+public class FakeDigitalOcean {
+
+    private static final int PER_PAGE = 200;
+
+    private long latencyMillis = 0;
+
+    private volatile long createLatencyMillis = 0;
+
+    private long bootDelayMillis = 0;
+
+    private int dropletLimit = Integer.MAX_VALUE;
+
+    private int requestsPerMinute = Integer.MAX_VALUE;
+
+    private double capacityErrorRate = 0;
+
+    private final AtomicInteger deleteFailures = new AtomicInteger();
+
+    private final Random random = new Random(42);
+
+    private final AtomicInteger nextId = new AtomicInteger(1000);
+
+    private final Map<Integer, Droplet> droplets = new TreeMap<Integer, Droplet>();
+
+    private final Map<Integer, Long> createdAtMillis = new ConcurrentHashMap<Integer, Long>();
+
+    private final Map<Integer, Action> actions = new ConcurrentHashMap<Integer, Action>();
+
+    private final List<String> tags = Collections.synchronizedList(new ArrayList<String>());
+
+    private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final List<Long> requestTimes = new ArrayList<Long>();
+
+    private int createdDroplets;
+
+    private int peakLiveDroplets;
+
+    public FakeDigitalOcean withLatency(long millis) {
+        latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Adds a latency to droplet creation only, on top of the request latency. Can be changed while the fake is
+     * installed.
+     */
+    public FakeDigitalOcean withCreateLatency(long millis) {
+        createLatencyMillis = millis;
+        return this;
+    }
+
+    public FakeDigitalOcean withBootDelay(long millis) {
+        bootDelayMillis = millis;
+        return this;
+    }
+
+    public FakeDigitalOcean withDropletLimit(int limit) {
+        dropletLimit = limit;
+        return this;
+    }
+
+    public FakeDigitalOcean withRateLimit(int perMinute) {
+        requestsPerMinute = perMinute;
+        return this;
+    }
+
+    public FakeDigitalOcean withCapacityErrorRate(double rate) {
+        capacityErrorRate = rate;
+        return this;
+    }
+
+    /**
+     * Fails the given number of droplet deletes with a server error before deleting droplets again.
+     */
+    public FakeDigitalOcean withDeleteFailures(int failures) {
+        deleteFailures.set(failures);
+        return this;
+    }
+
+    /**
+     * Makes the plugin talk to this fake instead of the real API, regardless of the auth token.
+     */
+    public FakeDigitalOcean install() {
+        DigitalOcean.setClientFactory(new DigitalOcean.ClientFactory() {
+            @Override
+            public DigitalOceanClient create(String authToken) {
+                return new Client(authToken);
+            }
+        });
+        return this;
+    }
+
+    public static void uninstall() {
+        DigitalOcean.setClientFactory(null);
+    }
+
+    public int getCalls(String endpoint) {
+        AtomicInteger count = calls.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    public int getTotalCalls() {
+        int total = 0;
+        for (AtomicInteger count : calls.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public Map<String, Integer> getCallsByEndpoint() {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> entry : calls.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public synchronized int getCreatedDroplets() {
+        return createdDroplets;
+    }
+
+    public synchronized int getLiveDroplets() {
+        return droplets.size();
+    }
+
+    public synchronized int getPeakLiveDroplets() {
+        return peakLiveDroplets;
+    }
+
+    private void call(String endpoint) throws DigitalOceanException {
+        AtomicInteger count = calls.get(endpoint);
+        if (count == null) {
+            calls.putIfAbsent(endpoint, new AtomicInteger());
+            count = calls.get(endpoint);
+        }
+        count.incrementAndGet();
+
+        synchronized (requestTimes) {
+            long now = System.currentTimeMillis();
+            while (!requestTimes.isEmpty() && requestTimes.get(0) < now - 60000) {
+                requestTimes.remove(0);
+            }
+            if (requestTimes.size() >= requestsPerMinute) {
+                throw new DigitalOceanException("API Rate limit exceeded.", "too_many_requests", 429);
+            }
+            requestTimes.add(now);
+        }
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the droplet as the API would currently report it, booting droplets become active with
+     * an IP address once the boot delay has passed.
+     */
+    private Droplet snapshot(Droplet droplet) {
+        Droplet copy = new Droplet();
+        copy.setId(droplet.getId());
+        copy.setName(droplet.getName());
+        copy.setSize(droplet.getSize());
+        copy.setRegion(droplet.getRegion());
+        copy.setImage(droplet.getImage());
+
+        Networks networks = new Networks();
+        List<Network> v4Networks = new ArrayList<Network>();
+        if (System.currentTimeMillis() - createdAtMillis.get(droplet.getId()) >= bootDelayMillis) {
+            copy.setStatus(DropletStatus.ACTIVE);
+            Network network = new Network();
+            network.setIpAddress("127.0.0.1");
+            network.setType("public");
+            v4Networks.add(network);
+        } else {
+            copy.setStatus(DropletStatus.NEW);
+        }
+        networks.setVersion4Networks(v4Networks);
+        networks.setVersion6Networks(new ArrayList<Network>());
+        copy.setNetworks(networks);
+
+        return copy;
+    }
+
+    private static Meta meta(int total) {
+        Meta meta = new Meta();
+        meta.setTotal(total);
+        return meta;
+    }
+
+    private static <T> List<T> page(List<T> all, Integer pageNo, Integer perPage) {
+        int size = Math.min(perPage == null ? PER_PAGE : perPage, PER_PAGE);
+        int from = Math.min((pageNo - 1) * size, all.size());
+        return new ArrayList<T>(all.subList(from, Math.min(from + size, all.size())));
+    }
+
+    private class Client extends DigitalOceanClient {
+
+        Client(String authToken) {
+            super(authToken);
+        }
+
+        @Override
+        public Droplets getAvailableDroplets(Integer pageNo, Integer perPage) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("droplets.list");
+            List<Droplet> all = new ArrayList<Droplet>();
+            synchronized (FakeDigitalOcean.this) {
+                for (Droplet droplet : droplets.values()) {
+                    all.add(snapshot(droplet));
+                }
+            }
+            Droplets result = new Droplets();
+            result.setDroplets(page(all, pageNo, perPage));
+            result.setMeta(meta(all.size()));
+            return result;
+        }
+
+        @Override
+        public Droplet getDropletInfo(Integer dropletId) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("droplets.get");
+            synchronized (FakeDigitalOcean.this) {
+                Droplet droplet = droplets.get(dropletId);
+                if (droplet == null) {
+                    throw new DigitalOceanException("The resource you were accessing could not be found.", "not_found", 404);
+                }
+                return snapshot(droplet);
+            }
+        }
+
+        @Override
+        public Droplet createDroplet(Droplet droplet) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("droplets.create");
+            if (createLatencyMillis > 0) {
+                try {
+                    Thread.sleep(createLatencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (FakeDigitalOcean.this) {
+                if (droplets.size() >= dropletLimit) {
+                    throw new DigitalOceanException("You specified more Droplets than you are allowed to create.", "unprocessable_entity", 422);
+                }
+                if (random.nextDouble() < capacityErrorRate) {
+                    throw new DigitalOceanException("Region is currently unavailable for this size.", "unprocessable_entity", 422);
+                }
+
+                Droplet created = new Droplet();
+                created.setId(nextId.incrementAndGet());
+                created.setName(droplet.getName());
+                created.setSize(droplet.getSize());
+                created.setRegion(droplet.getRegion());
+                created.setImage(droplet.getImage());
+                createdAtMillis.put(created.getId(), System.currentTimeMillis());
+                droplets.put(created.getId(), created);
+
+                createdDroplets++;
+                peakLiveDroplets = Math.max(peakLiveDroplets, droplets.size());
+                return snapshot(created);
+            }
+        }
+
+        @Override
+        public Delete deleteDroplet(Integer dropletId) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("droplets.delete");
+            if (deleteFailures.getAndDecrement() > 0) {
+                throw new DigitalOceanException("Server was unable to give you a response.", "server_error", 500);
+            }
+            synchronized (FakeDigitalOcean.this) {
+                if (droplets.remove(dropletId) == null) {
+                    throw new DigitalOceanException("The resource you were accessing could not be found.", "not_found", 404);
+                }
+            }
+            return new Delete(true);
+        }
+
+        @Override
+        public Action rebuildDroplet(Integer dropletId, Integer imageId) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("droplets.actions.rebuild");
+            synchronized (FakeDigitalOcean.this) {
+                if (!droplets.containsKey(dropletId)) {
+                    throw new DigitalOceanException("The resource you were accessing could not be found.", "not_found", 404);
+                }
+                createdAtMillis.put(dropletId, System.currentTimeMillis());
+            }
+            Action action = new Action();
+            action.setId(nextId.incrementAndGet());
+            action.setStatus(ActionStatus.COMPLETED);
+            actions.put(action.getId(), action);
+            return action;
+        }
+
+        @Override
+        public Action getActionInfo(Integer actionId) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("actions.get");
+            Action action = actions.get(actionId);
+            if (action == null) {
+                throw new DigitalOceanException("The resource you were accessing could not be found.", "not_found", 404);
+            }
+            return action;
+        }
+
+        @Override
+        public Image getImageInfo(String slug) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("images.get");
+            return image(1, slug);
+        }
+
+        @Override
+        public Images getAvailableImages(Integer pageNo, Integer perPage) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("images.list");
+            List<Image> all = new ArrayList<Image>();
+            all.add(image(1, "ubuntu-14-04-x64"));
+            all.add(image(2, "debian-8-x64"));
+            Images result = new Images();
+            result.setImages(page(all, pageNo, perPage));
+            result.setMeta(meta(all.size()));
+            return result;
+        }
+
+        @Override
+        public Sizes getAvailableSizes(Integer pageNo) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("sizes.list");
+            List<Size> all = new ArrayList<Size>();
+            all.add(size("512mb", 512, 1, "5", "0.00744"));
+            all.add(size("1gb", 1024, 1, "10", "0.01488"));
+            all.add(size("8gb", 8192, 4, "80", "0.11905"));
+            Sizes result = new Sizes();
+            result.setSizes(page(all, pageNo, PER_PAGE));
+            result.setMeta(meta(all.size()));
+            return result;
+        }
+
+        @Override
+        public Regions getAvailableRegions(Integer pageNo) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("regions.list");
+            List<Region> all = new ArrayList<Region>();
+            Region region = new Region("nyc1");
+            region.setName("New York 1");
+            all.add(region);
+            Regions result = new Regions();
+            result.setRegions(page(all, pageNo, PER_PAGE));
+            result.setMeta(meta(all.size()));
+            return result;
+        }
+
+        @Override
+        public com.myjeeva.digitalocean.pojo.Account getAccountInfo() throws DigitalOceanException, RequestUnsuccessfulException {
+            call("account");
+            com.myjeeva.digitalocean.pojo.Account account = new com.myjeeva.digitalocean.pojo.Account();
+            account.setDropletLimit(dropletLimit == Integer.MAX_VALUE ? 10000 : dropletLimit);
+            account.setStatus("active");
+            return account;
+        }
+
+        @Override
+        public Keys getAvailableKeys(Integer pageNo) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("keys.list");
+            List<Key> all = new ArrayList<Key>();
+            Key key = new Key(1);
+            key.setName("jenkins");
+            all.add(key);
+            Keys result = new Keys();
+            result.setKeys(page(all, pageNo, PER_PAGE));
+            result.setMeta(meta(all.size()));
+            return result;
+        }
+
+        @Override
+        public Tags getAvailableTags(Integer pageNo, Integer perPage) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("tags.list");
+            List<Tag> all = new ArrayList<Tag>();
+            synchronized (tags) {
+                for (String name : tags) {
+                    Tag tag = new Tag();
+                    tag.setName(name);
+                    all.add(tag);
+                }
+            }
+            Tags result = new Tags();
+            result.setTags(page(all, pageNo, perPage));
+            result.setMeta(meta(all.size()));
+            return result;
+        }
+
+        @Override
+        public Tag createTag(String name) throws DigitalOceanException, RequestUnsuccessfulException {
+            call("tags.create");
+            if (!tags.contains(name)) {
+                tags.add(name);
+            }
+            Tag tag = new Tag();
+            tag.setName(name);
+            return tag;
+        }
+    }
+
+    private static Image image(int id, String slug) {
+        Image image = new Image();
+        image.setId(id);
+        image.setSlug(slug);
+        image.setName(slug);
+        image.setDistribution("Ubuntu");
+        image.setType(ImageType.SNAPSHOT);
+        return image;
+    }
+
+    private static Size size(String slug, int memory, int vcpus, String priceMonthly, String priceHourly) {
+        Size size = new Size();
+        size.setSlug(slug);
+        size.setMemorySizeInMb(memory);
+        size.setVirutalCpuCount(vcpus);
+        size.setDiskSize(20);
+        size.setPriceMonthly(new BigDecimal(priceMonthly));
+        size.setPriceHourly(new BigDecimal(priceHourly));
+        return size;
+    }
+}
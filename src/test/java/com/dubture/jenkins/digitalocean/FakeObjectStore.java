@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A minimal local stand-in for an S3-compatible object store, serving GET and PUT of objects in a single bucket
+ * from memory. Requests must carry presigned query parameters, but signatures are not verified.
+ */
+public class FakeObjectStore {
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+
+    private final String bucket;
+
+    private HttpServer server;
+
+    public FakeObjectStore(String bucket) {
+        this.bucket = bucket;
+    }
+
+    public FakeObjectStore start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/" + bucket + "/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * @return the path-style URL of the bucket
+     */
+    public String getBucketUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + bucket;
+    }
+
+    public byte[] getObject(String key) {
+        return objects.get(key);
+    }
+
+    public void putObject(String key, byte[] content) {
+        objects.put(key, content);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || !query.contains("X-Amz-Signature=") || !query.contains("X-Amz-Credential=")) {
+            sendError(exchange, 403, "AccessDenied");
+            return;
+        }
+
+        String key = exchange.getRequestURI().getPath().substring(bucket.length() + 2);
+        String method = exchange.getRequestMethod();
+
+        if ("GET".equals(method)) {
+            byte[] content = objects.get(key);
+            if (content == null) {
+                sendError(exchange, 404, "NoSuchKey");
+                return;
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(content);
+            out.close();
+        } else if ("PUT".equals(method)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                content.write(buffer, 0, n);
+            }
+            objects.put(key, content.toByteArray());
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            sendError(exchange, 405, "MethodNotAllowed");
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code + "</Code></Error>").getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.common.ImageType;
+import com.myjeeva.digitalocean.pojo.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks sorting and deduplicating image names the way {@link DigitalOcean#getAvailableImages(String)} does,
+ * with a varying share of images that have the same name, e.g. backups of the same droplet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageListingBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int imageCount;
+
+    @Param({"1", "50"})
+    public int imagesPerName;
+
+    private List<Image> images;
+
+    @Setup
+    public void setUp() {
+        images = new ArrayList<Image>(imageCount);
+        for (int i = 0; i < imageCount; i++) {
+            Image image = new Image();
+            image.setId(i);
+            image.setDistribution("Ubuntu");
+            image.setName("image-" + (i / imagesPerName));
+            if (i % 2 == 0) {
+                image.setType(ImageType.BACKUP);
+            } else {
+                image.setType(ImageType.SNAPSHOT);
+                image.setSlug("image-" + i);
+            }
+            images.add(image);
+        }
+    }
+
+    @Benchmark
+    public SortedMap<String, Image> sortAndDeduplicate() {
+        SortedMap<String, Image> availableImages = DigitalOcean.newImageMap();
+        DigitalOcean.addAvailableImages(availableImages, images);
+        return availableImages;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Base for JMH states that need a running Jenkins, e.g. to parse labels or create nodes.
+ *
+ * <p>{@link JenkinsRule} only runs Jenkins for the duration of a single statement, so the statement is evaluated
+ * on a separate thread that keeps Jenkins up until the benchmark trial is over.
+ */
+public abstract class JenkinsBenchmarkState {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile Throwable failure;
+
+    private Thread jenkinsThread;
+
+    protected JenkinsRule jenkinsRule;
+
+    @Setup(Level.Trial)
+    public final void startJenkins() throws Throwable {
+        jenkinsRule = new JenkinsRule();
+        jenkinsRule.timeout = 0;
+
+        final Statement statement = jenkinsRule.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                started.countDown();
+                finished.await();
+            }
+        }, Description.createTestDescription(getClass(), "benchmark"));
+
+        jenkinsThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    statement.evaluate();
+                } catch (Throwable t) {
+                    failure = t;
+                    started.countDown();
+                }
+            }
+        }, "Jenkins for " + getClass().getSimpleName());
+        jenkinsThread.start();
+
+        started.await();
+        if (failure != null) {
+            throw failure;
+        }
+
+        setUp();
+    }
+
+    @TearDown(Level.Trial)
+    public final void stopJenkins() throws InterruptedException {
+        finished.countDown();
+        jenkinsThread.join();
+    }
+
+    /**
+     * Called once Jenkins is running.
+     */
+    protected abstract void setUp() throws Exception;
+}
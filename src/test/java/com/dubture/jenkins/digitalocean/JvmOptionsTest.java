@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.pojo.Size;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JvmOptionsTest {
+
+    @Test
+    public void heapGrowsSublinearlyWithMemory() {
+        assertEquals(256, JvmOptions.getMaxHeapInMb(512));
+        assertEquals(384, JvmOptions.getMaxHeapInMb(1024));
+        assertEquals(8448, JvmOptions.getMaxHeapInMb(65536));
+    }
+
+    @Test
+    public void smallDropletsUseSerialCollector() {
+        String options = JvmOptions.forSize(newSize(1024, 1));
+
+        assertTrue(options, options.contains("-Xmx384m"));
+        assertTrue(options, options.contains("-XX:MaxMetaspaceSize=128m"));
+        assertTrue(options, options.contains("-XX:+UseSerialGC"));
+    }
+
+    @Test
+    public void largeDropletsUseG1() {
+        String options = JvmOptions.forSize(newSize(16384, 8));
+
+        assertTrue(options, options.contains("-Xmx2304m"));
+        assertTrue(options, options.contains("-XX:MaxMetaspaceSize=256m"));
+        assertTrue(options, options.contains("-XX:+UseG1GC"));
+    }
+
+    private static Size newSize(int memoryInMb, int cpuCount) {
+        Size size = new Size();
+        size.setMemorySizeInMb(memoryInMb);
+        size.setVirutalCpuCount(cpuCount);
+        return size;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LaunchPhasesTest {
+
+    @Test
+    public void needsEnoughSamplesForP90() {
+        LaunchPhases phases = new LaunchPhases();
+        for (int i = 1; i < LaunchPhases.MIN_SAMPLES; i++) {
+            phases.record(DropletLaunch.State.CREATED, i * 1000);
+        }
+
+        assertEquals(-1, phases.getP90(DropletLaunch.State.CREATED));
+    }
+
+    @Test
+    public void p90OfRecentDurations() {
+        LaunchPhases phases = new LaunchPhases();
+        // the first ten fall out of the window
+        for (int i = 0; i < 10; i++) {
+            phases.record(DropletLaunch.State.ACTIVE, 1000000);
+        }
+        for (int i = 1; i <= 50; i++) {
+            phases.record(DropletLaunch.State.ACTIVE, i * 1000);
+        }
+
+        assertEquals(45000, phases.getP90(DropletLaunch.State.ACTIVE));
+        assertEquals(-1, phases.getP90(DropletLaunch.State.CREATED));
+    }
+
+    @Test
+    public void hedgesWithinBudget() {
+        LaunchPhases phases = new LaunchPhases();
+        for (int i = 0; i < 20; i++) {
+            phases.onLaunch();
+        }
+
+        assertTrue(phases.tryHedge(10));
+        assertTrue(phases.tryHedge(10));
+        assertFalse(phases.tryHedge(10));
+        assertFalse(phases.tryHedge(0));
+
+        // a third hedge needs 30 launches
+        for (int i = 0; i < 9; i++) {
+            phases.onLaunch();
+        }
+        assertFalse(phases.tryHedge(10));
+        phases.onLaunch();
+        assertTrue(phases.tryHedge(10));
+    }
+}
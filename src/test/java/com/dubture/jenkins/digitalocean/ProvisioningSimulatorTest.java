@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProvisioningSimulatorTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void readsTrace() throws IOException {
+        ProvisioningSimulator.Trace trace = ProvisioningSimulator.Trace.read(new StringReader(
+                "A\t1000\t1\tlinux\n"
+                + "A\t2000\t2\t-\n"
+                + "A\t3000\t3\tlinux\n"
+                + "C\t4000\t3\n"
+                + "B\t5000\tcloud\tsmall\t30000\tCREATED:1000,ACTIVE:29000\n"
+                + "S\t6000\t1\n"
+                + "E\t66000\t1\t60000\n"
+                + "S\t7000\t2\n"));
+
+        assertEquals(2, trace.jobs.size());
+        assertEquals("linux", trace.jobs.get(0).label);
+        assertEquals(null, trace.jobs.get(1).label);
+        // the second build never completed in the trace, so it takes as long as the median one
+        assertEquals(60000, trace.jobs.get(1).durationMillis);
+        assertEquals(Collections.singletonList(30000L), trace.launchMillis.get("small"));
+        assertEquals(5000, trace.getRecordedResult().getWaitPercentile(100));
+    }
+
+    @Test
+    public void waitsForLaunchAndBillsStartedHours() throws IOException {
+        ProvisioningSimulator.Trace trace = ProvisioningSimulator.Trace.read(new StringReader(
+                "A\t0\t1\tlinux\n"
+                + "E\t0\t1\t60000\n"
+                + "B\t0\tcloud\tsmall\t30000\t\n"));
+
+        ProvisioningSimulator.Result result = ProvisioningSimulator.simulate(trace, policy(10), 0);
+
+        assertEquals(30000, result.getWaitPercentile(50));
+        assertEquals(1, result.droplets);
+        // 30s launch, 1 minute build, then idle for 10 minutes
+        assertEquals(30000 + MINUTE + 10 * MINUTE + 1, result.dropletMillis);
+        assertEquals(1, result.billedHours);
+        assertEquals(0, result.thrash);
+    }
+
+    @Test
+    public void countsThrashing() throws IOException {
+        StringBuilder lines = new StringBuilder("B\t0\tcloud\tsmall\t30000\t\n");
+        for (int i = 0; i < 5; i++) {
+            lines.append("A\t").append(i * 5 * MINUTE).append('\t').append(i).append("\tlinux\n");
+            lines.append("E\t0\t").append(i).append("\t60000\n");
+        }
+        ProvisioningSimulator.Trace trace = ProvisioningSimulator.Trace.read(new StringReader(lines.toString()));
+
+        // slaves idle for a minute are gone by the time the next build comes in 5 minutes later
+        ProvisioningSimulator.Result eager = ProvisioningSimulator.simulate(trace, policy(1), 0);
+        assertEquals(5, eager.droplets);
+        assertEquals(4, eager.thrash);
+
+        ProvisioningSimulator.Result patient = ProvisioningSimulator.simulate(trace, policy(10), 0);
+        assertEquals(1, patient.droplets);
+        assertEquals(0, patient.thrash);
+        assertEquals(0, patient.getWaitPercentile(50));
+    }
+
+    @Test
+    public void matchesOnlySimpleLabelExpressions() {
+        ProvisioningSimulator.TemplatePolicy template =
+                new ProvisioningSimulator.TemplatePolicy("small", "linux docker", 0, 10, 1);
+
+        assertTrue(template.matches("linux && docker"));
+        assertTrue(template.matches("windows || docker"));
+        assertFalse(template.matches("linux && windows"));
+        try {
+            template.matches("linux && !windows");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static ProvisioningSimulator.Policy policy(int idleTerminationInMinutes) {
+        return new ProvisioningSimulator.Policy("test", 0, 10000, 60000, Collections.singletonList(
+                new ProvisioningSimulator.TemplatePolicy("small", "linux", 0, idleTerminationInMinutes, 1)));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+/**
+ * Builds the {@link SlaveTemplate}s used in tests, with the settings of a small Ubuntu droplet in nyc1 unless told
+ * otherwise. Optional settings are set on the built template through its setters.
+ */
+final class TemplateBuilder {
+
+    private final String name;
+
+    private String labels = "";
+
+    private int sshPort = 22;
+
+    private int numExecutors = 1;
+
+    private int instanceCap = 0;
+
+    private TemplateBuilder(String name) {
+        this.name = name;
+    }
+
+    static TemplateBuilder template(String name) {
+        return new TemplateBuilder(name);
+    }
+
+    TemplateBuilder labels(String labels) {
+        this.labels = labels;
+        return this;
+    }
+
+    TemplateBuilder sshPort(int sshPort) {
+        this.sshPort = sshPort;
+        return this;
+    }
+
+    TemplateBuilder numExecutors(int numExecutors) {
+        this.numExecutors = numExecutors;
+        return this;
+    }
+
+    TemplateBuilder instanceCap(int instanceCap) {
+        this.instanceCap = instanceCap;
+        return this;
+    }
+
+    SlaveTemplate build() {
+        return new SlaveTemplate(name, "ubuntu-14-04-x64", "512mb", "nyc1", "root", "/jenkins", sshPort, "10",
+                String.valueOf(numExecutors), labels, String.valueOf(instanceCap), "", "");
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TemplateQuarantineTest {
+
+    @Test
+    public void quarantinesAfterConsecutiveFailures() {
+        TemplateQuarantine quarantine = new TemplateQuarantine("test");
+        for (int i = 0; i < TemplateQuarantine.FAILURE_THRESHOLD - 1; i++) {
+            assertFalse(quarantine.recordFailure(LaunchFailure.BOOT_TIMEOUT, 0));
+        }
+        quarantine.recordSuccess();
+        for (int i = 0; i < TemplateQuarantine.FAILURE_THRESHOLD - 1; i++) {
+            quarantine.recordFailure(LaunchFailure.BOOT_TIMEOUT, 0);
+        }
+        assertFalse(quarantine.isQuarantined(0));
+
+        assertTrue(quarantine.recordFailure(LaunchFailure.INIT_SCRIPT, 0));
+
+        assertTrue(quarantine.isQuarantined(TemplateQuarantine.MIN_QUARANTINE_MILLIS - 1));
+        assertFalse(quarantine.isQuarantined(TemplateQuarantine.MIN_QUARANTINE_MILLIS));
+        assertEquals(LaunchFailure.INIT_SCRIPT, quarantine.getLastFailure());
+        assertEquals(Integer.valueOf(2 * TemplateQuarantine.FAILURE_THRESHOLD - 2),
+                quarantine.getFailures().get(LaunchFailure.BOOT_TIMEOUT));
+    }
+
+    @Test
+    public void backsOffExponentiallyUntilSuccess() {
+        TemplateQuarantine quarantine = new TemplateQuarantine("test");
+        for (int i = 0; i < TemplateQuarantine.FAILURE_THRESHOLD; i++) {
+            quarantine.recordFailure(LaunchFailure.CREATE_REJECTED, 0);
+        }
+
+        long now = TemplateQuarantine.MIN_QUARANTINE_MILLIS;
+        quarantine.recordFailure(LaunchFailure.CREATE_REJECTED, now);
+        assertTrue(quarantine.isQuarantined(now + 2 * TemplateQuarantine.MIN_QUARANTINE_MILLIS - 1));
+        assertFalse(quarantine.isQuarantined(now + 2 * TemplateQuarantine.MIN_QUARANTINE_MILLIS));
+
+        assertEquals(TemplateQuarantine.MAX_QUARANTINE_MILLIS,
+                TemplateQuarantine.getQuarantineMillis(TemplateQuarantine.FAILURE_THRESHOLD + 100));
+
+        quarantine.recordSuccess();
+        assertFalse(quarantine.isQuarantined(now));
+        assertEquals(0, quarantine.getConsecutiveFailures());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Maxim Biro <nurupo.contributions@gmail.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.dubture.jenkins.digitalocean;
+
+import com.myjeeva.digitalocean.pojo.Size;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UtilizationTest {
+
+    private static final Size SMALL = size("4gb", 4096, 2, "0.05952");
+
+    private static final Size MEDIUM = size("8gb", 8192, 4, "0.11905");
+
+    private static final Size LARGE = size("16gb", 16384, 8, "0.23810");
+
+    private static final List<Size> SIZES = Arrays.asList(SMALL, MEDIUM, LARGE);
+
+    @Test
+    public void needsEnoughSamples() {
+        Utilization utilization = sample(Utilization.MIN_SAMPLES - 1, 0.1, 0.2, 1);
+
+        assertNull(utilization.recommend("build", LARGE, SIZES, "nyc1", 4));
+    }
+
+    @Test
+    public void recommendsCheapestSizeServingTheLoad() {
+        // 12% of 8 vCPU needs 1.6 vCPU at 60%, 30% of 16 GB needs 6 GB at 80%
+        Utilization utilization = sample(Utilization.MIN_SAMPLES, 0.12, 0.3, 2);
+
+        assertEquals("build averages 12% CPU on 8 vCPU, 30% memory at peak of 16384 MB and 2 of 4 executors busy at peak; "
+                + "8gb (4 vCPU, 8192 MB) with 2 executors would serve the same load for $0.11905/h instead of $0.23810/h",
+                utilization.recommend("build", LARGE, SIZES, "nyc1", 4));
+    }
+
+    @Test
+    public void keepsSizeThatFits() {
+        Utilization utilization = sample(Utilization.MIN_SAMPLES, 0.5, 0.7, 2);
+
+        assertEquals("build averages 50% CPU on 2 vCPU, 70% memory at peak of 4096 MB and 2 of 2 executors busy at peak; "
+                + "the size fits the load", utilization.recommend("build", SMALL, SIZES, "nyc1", 2));
+    }
+
+    private static Utilization sample(int samples, double cpu, double memory, int busyExecutors) {
+        Utilization utilization = new Utilization();
+        for (int i = 0; i < samples; i++) {
+            utilization.add(1000, cpu, memory, 0.5, busyExecutors / 4.0, busyExecutors);
+        }
+        return utilization;
+    }
+
+    private static Size size(String slug, int memory, int vcpus, String priceHourly) {
+        Size size = new Size();
+        size.setSlug(slug);
+        size.setMemorySizeInMb(memory);
+        size.setVirutalCpuCount(vcpus);
+        size.setPriceHourly(new BigDecimal(priceHourly));
+        return size;
+    }
+}